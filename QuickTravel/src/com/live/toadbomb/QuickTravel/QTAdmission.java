@@ -0,0 +1,139 @@
+package com.live.toadbomb.QuickTravel;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import org.bukkit.ChatColor;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+/* Lets paid-up travels on to their chunk loading and teleport a few at a
+ * time, so a crowd all using /qt at once is spread over several ticks. Each
+ * tick admits up to a number of players, or until a time budget is used up.
+ * Travels to places whose chunks are already loaded go first, as they cost
+ * little, but a travel that has waited too long goes next whatever its
+ * destination. Waiting players are told their place in the queue. Runs each
+ * tick from a sync repeating task. Main thread only. */
+public class QTAdmission implements Runnable {
+	/* How often waiting players are reminded of their place, in ticks */
+	private static final int NOTIFY_TICKS = 100;
+	/* How far down the queue to look for a travel to loaded chunks */
+	private static final int LOOKAHEAD = 32;
+
+	public interface Ticket {
+		/* Who is told about the queue */
+		public Player getPlayer();
+
+		/* Where the travel is going, to tell whether the chunks are loaded */
+		public Location getDestination();
+
+		/* How many players the travel moves */
+		public int getSize();
+
+		/* Called once when the travel may carry on */
+		public void admitted();
+	}
+
+	private final int perTick;
+	private final long budget;
+	private final long maxWait;
+	private final LinkedList<Waiting> queue = new LinkedList<Waiting>();
+	private long tick = 0;
+	/* Admitted so far this tick */
+	private int players = 0;
+	private long spent = 0;
+
+	/* budgetNanos of 0 means no time budget */
+	public QTAdmission(int perTick, long budgetNanos, long maxWaitTicks) {
+		this.perTick = Math.max(1, perTick);
+		this.budget = budgetNanos;
+		this.maxWait = Math.max(1, maxWaitTicks);
+	}
+
+	/* Travels waiting to be admitted */
+	public int size() {
+		return queue.size();
+	}
+
+	/* Admits t straight away if this tick has room and nobody is waiting, otherwise queues it.
+	 * Returns true if t was admitted, in which case admitted() is not called. */
+	public boolean enter(Ticket t) {
+		if(queue.isEmpty() && hasRoom()) {
+			players += t.getSize();
+			return true;
+		}
+		queue.add(new Waiting(t, tick));
+		if(t.getPlayer().isOnline()) {
+			t.getPlayer().sendMessage(ChatColor.BLUE + "Lots of people are QuickTravelling, you are number " + ChatColor.GOLD + queue.size() + ChatColor.BLUE + " in the queue.");
+		}
+		return false;
+	}
+
+	public void run() {
+		tick++;
+		players = 0;
+		spent = 0;
+		while(!queue.isEmpty() && hasRoom()) {
+			Waiting w = next();
+			long start = System.nanoTime();
+			try {
+				w.ticket.admitted();
+			} catch(RuntimeException e) {
+				QuickTravel.severe("QuickTravel failed after leaving the queue: " + e);
+			}
+			spent += System.nanoTime() - start;
+			if(w.ticket.getPlayer().isOnline()) {
+				/* Someone who has gone costs next to nothing */
+				players += w.ticket.getSize();
+			}
+		}
+		if(tick % NOTIFY_TICKS == 0) {
+			int place = 1;
+			for(Waiting w : queue) {
+				if(w.ticket.getPlayer().isOnline()) {
+					w.ticket.getPlayer().sendMessage(ChatColor.BLUE + "You are number " + ChatColor.GOLD + place + ChatColor.BLUE + " in the QuickTravel queue.");
+				}
+				place++;
+			}
+		}
+	}
+
+	private boolean hasRoom() {
+		/* At least one travel a tick gets through, however big or slow */
+		if(players == 0) {
+			return true;
+		}
+		return players < perTick && (budget <= 0 || spent < budget);
+	}
+
+	/* Removes and returns the travel to admit next */
+	private Waiting next() {
+		Waiting first = queue.getFirst();
+		if(tick - first.since < maxWait) {
+			Iterator<Waiting> it = queue.iterator();
+			for(int i = 0; i < LOOKAHEAD && it.hasNext(); i++) {
+				Waiting w = it.next();
+				if(!w.ticket.getPlayer().isOnline() || loaded(w.ticket.getDestination())) {
+					it.remove();
+					return w;
+				}
+			}
+		}
+		return queue.removeFirst();
+	}
+
+	private static boolean loaded(Location l) {
+		return l != null && l.getWorld().isChunkLoaded(l.getBlockX() >> 4, l.getBlockZ() >> 4);
+	}
+
+	private static class Waiting {
+		final Ticket ticket;
+		/* Tick it was queued on */
+		final long since;
+
+		Waiting(Ticket ticket, long since) {
+			this.ticket = ticket;
+			this.since = since;
+		}
+	}
+}
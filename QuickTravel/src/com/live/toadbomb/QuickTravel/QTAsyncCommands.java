@@ -0,0 +1,199 @@
+package com.live.toadbomb.QuickTravel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+
+/* Runs the read-only list commands off the main thread.
+ * Anything that needs the live server (position, permissions, current QT)
+ * is captured on the main thread, the filtering and formatting is then
+ * done on a single worker thread against a snapshot, and the finished
+ * messages are handed back to the main thread to be sent. */
+public class QTAsyncCommands {
+	private final QuickTravel plugin;
+	private final ExecutorService worker;
+
+	public QTAsyncCommands(QuickTravel plugin) {
+		this.plugin = plugin;
+		this.worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "QuickTravel Commands");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	public void shutdown() {
+		worker.shutdownNow();
+	}
+
+	/* "/qt [page]", must be called on the main thread */
+	public void listDestinations(final Player p, final int page, final QTParallelList parallel, final int parallelThreshold, final boolean sortByDistance) {
+		final QTSnapshot snapshot = plugin.getRegistry().getSnapshot();
+		final QTTraveller traveller = QTTraveller.capture(plugin, p, snapshot);
+		final QTQuotes quotes = plugin.getQuotes();
+		submit(p, new Task() {
+			public List<String> run() throws Exception {
+				List<QTParallelList.Destination> destinations;
+				if(parallel != null && snapshot.getQTs().size() >= parallelThreshold) {
+					destinations = parallel.evaluate(snapshot, traveller);
+				} else {
+					destinations = QTParallelList.evaluate(snapshot, traveller, 0, snapshot.getQTs().size());
+				}
+				if(sortByDistance == true) {
+					sortByDistance(traveller, destinations);
+				}
+				if(snapshot.isEconomyEnabled() == true) {
+					/* Every price is known, so quote them all rather than just this page */
+					Map<String, Double> prices = new HashMap<String, Double>();
+					for(QTParallelList.Destination d : destinations) {
+						prices.put(d.qt.getKey(), d.price);
+					}
+					String from = QTQuotes.from(traveller.getCurrent() == null ? null : traveller.getCurrent().getKey(), traveller.getWorld(), traveller.x, traveller.z);
+					quotes.offer(traveller.getId(), from, snapshot.getVersion(), prices);
+				}
+				return formatDestinations(traveller, destinations, page);
+			}
+		});
+	}
+
+	/* "/qt list [page]", must be called on the main thread */
+	public void listAll(CommandSender sender, final int page) {
+		final QTSnapshot snapshot = plugin.getRegistry().getSnapshot();
+		final Set<String> discovered = sender instanceof Player ? plugin.getDiscoveries().getDiscovered(plugin.getPlayerId((Player)sender)) : null;
+		submit(sender, new Task() {
+			public List<String> run() {
+				return formatAll(snapshot, discovered, page);
+			}
+		});
+	}
+
+	private void submit(final CommandSender sender, final Task task) {
+		worker.execute(new Runnable() {
+			public void run() {
+				final List<String> messages;
+				try {
+					messages = task.run();
+				} catch(Exception e) {
+					QuickTravel.severe("Could not run command for " + sender.getName() + ": " + e);
+					return;
+				}
+				plugin.getServer().getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
+					public void run() {
+						if(sender instanceof Player && !((Player)sender).isOnline()) {
+							return;
+						}
+						for(String m : messages) {
+							sender.sendMessage(m);
+						}
+					}
+				});
+			}
+		});
+	}
+
+	/* Same order as QuickTravel.sortByDistance, the near index is main thread only so distances are worked out here */
+	private void sortByDistance(final QTTraveller traveller, List<QTParallelList.Destination> destinations) {
+		Collections.sort(destinations, new Comparator<QTParallelList.Destination>() {
+			public int compare(QTParallelList.Destination a, QTParallelList.Destination b) {
+				boolean aHere = a.qt.getWorld().equals(traveller.getWorld());
+				boolean bHere = b.qt.getWorld().equals(traveller.getWorld());
+				if(aHere != bHere) {
+					return aHere ? -1 : 1;
+				} else if(aHere == false) {
+					return 0;
+				}
+				return Double.compare(traveller.distanceTo(a.qt), traveller.distanceTo(b.qt));
+			}
+		});
+	}
+
+	/* Same output as displayList */
+	private List<String> formatDestinations(QTTraveller traveller, List<QTParallelList.Destination> destinations, int page) {
+		List<String> out = new ArrayList<String>();
+		if(traveller.getCurrent() != null) {
+			out.add(ChatColor.BLUE + "Current Location: " + ChatColor.AQUA + traveller.getCurrent().getName());
+		}
+		out.add(ChatColor.BLUE + "From here you can QuickTravel to:");
+		if(destinations.size() <= 0) {
+			out.add("You cannot QuickTravel anywhere yet.");
+			return out;
+		}
+		int pages = (int) Math.ceil((double)destinations.size() / (double)8);
+		if(page > pages) {
+			out.add("There is no page " + page + ", displaying page 1.");
+			page = 1;
+		}
+		int start = (page - 1) * 8;
+		int end = Math.min(destinations.size(), start + 8);
+		for(int i = start; i < end; i++) {
+			QTParallelList.Destination d = destinations.get(i);
+			String wString = "";
+			if(!d.qt.getWorld().equalsIgnoreCase(traveller.getWorld())) {
+				wString = "[" + d.qt.getWorld() + "] ";
+			}
+			if(d.price > 0) {
+				out.add(wString + ChatColor.AQUA + d.qt.getName() + ChatColor.WHITE + " | " + ChatColor.GOLD + "Price: " + EcoSetup.economy.format(d.price));
+			} else {
+				out.add(wString + ChatColor.AQUA + d.qt.getName());
+			}
+		}
+		out.add(plugin.pageFooter(page, pages, "/qt "));
+		return out;
+	}
+
+	/* Same output as QTList with listAll set */
+	private List<String> formatAll(QTSnapshot snapshot, Set<String> discovered, int page) {
+		List<String> out = new ArrayList<String>();
+		List<QTInfo> qts = snapshot.getQTs();
+		if(qts.size() <= 0) {
+			out.add("The list is empty.");
+			return out;
+		}
+		int pages = (int) Math.ceil((double)qts.size() / (double)8);
+		if(page > pages) {
+			out.add("There is no page " + page + ", displaying page 1.");
+			page = 1;
+		}
+		boolean dCfg = snapshot.getSettings().requireDiscoveryByDefault;
+		int start = (page - 1) * 8;
+		int end = Math.min(qts.size(), start + 8);
+		for(int i = start; i < end; i++) {
+			QTInfo qt = qts.get(i);
+			String e = "Disabled";
+			ChatColor eColour = ChatColor.RED;
+			if(qt.isEnabled() == true) {
+				e = "Enabled";
+				eColour = ChatColor.GREEN;
+			}
+			String d = null;
+			ChatColor dColour = null;
+			if(discovered != null && discovered.contains(qt.getKey())) {
+				d = "Discovered";
+				dColour = dCfg ? ChatColor.GOLD : ChatColor.GRAY;
+			} else {
+				d = "Undiscovered";
+				dColour = dCfg ? ChatColor.GRAY : ChatColor.DARK_GRAY;
+			}
+			out.add("[" + qt.getWorld() + "] " + ChatColor.AQUA + qt.getName() + ChatColor.WHITE + " | " + eColour + e + ChatColor.WHITE + " | " + dColour + d);
+		}
+		out.add(plugin.pageFooter(page, pages, "/qt list "));
+		return out;
+	}
+
+	private interface Task {
+		List<String> run() throws Exception;
+	}
+}
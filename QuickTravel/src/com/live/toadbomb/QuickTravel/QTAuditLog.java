@@ -0,0 +1,270 @@
+package com.live.toadbomb.QuickTravel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.GZIPOutputStream;
+
+/* A record of every QuickTravel charge and refund, in audit/.
+ * Entries are put in a fixed size ring buffer without locking or allocating,
+ * and written out by a background thread. If the writer falls so far behind
+ * that the buffer is full, new entries are dropped and counted rather than
+ * holding up the server. current.log is compressed into a dated .log.gz once
+ * it grows past the size limit, or on restart, and only the newest few are kept. */
+public class QTAuditLog implements Runnable {
+	public static final int CHARGED = 0;
+	public static final int DECLINED = 1;
+	public static final int TIMED_OUT = 2;
+	public static final int REFUNDED = 3;
+	public static final int REFUND_FAILED = 4;
+	private static final String[] OUTCOMES = { "charged", "declined", "timed-out", "refunded", "refund-failed" };
+
+	private final QuickTravel plugin;
+	private final File folder;
+	private final long rotateBytes;
+	private final int keep;
+
+	/* The ring, one entry per slot across these arrays */
+	private final int mask;
+	private final long[] times;
+	private final int[] players;
+	private final int[] froms;
+	private final int[] tos;
+	private final double[] amounts;
+	private final boolean[] banks;
+	private final int[] outcomes;
+	/* Per slot, the position that may write it next, or that position + 1 once written */
+	private final AtomicLongArray sequence;
+	/* Next position to write */
+	private final AtomicLong tail = new AtomicLong(0);
+	private final AtomicLong dropped = new AtomicLong(0);
+	/* Next position to read, writer thread only */
+	private long head = 0;
+
+	private final Thread writer;
+	private volatile boolean running = true;
+	private Writer out = null;
+	private long written = 0;
+	private long droppedReported = 0;
+	private QTSnapshot names = null;
+	private final Map<Integer, String> qtNames = new HashMap<Integer, String>();
+
+	/* capacity is rounded up to a power of two */
+	public QTAuditLog(QuickTravel plugin, int capacity, long rotateBytes, int keep) {
+		this.plugin = plugin;
+		this.folder = new File(plugin.getDataFolder(), "audit");
+		this.rotateBytes = rotateBytes;
+		this.keep = keep;
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.mask = size - 1;
+		this.times = new long[size];
+		this.players = new int[size];
+		this.froms = new int[size];
+		this.tos = new int[size];
+		this.amounts = new double[size];
+		this.banks = new boolean[size];
+		this.outcomes = new int[size];
+		this.sequence = new AtomicLongArray(size);
+		for(int i = 0; i < size; i++) {
+			sequence.set(i, i);
+		}
+		this.writer = new Thread(this, "QuickTravel Audit");
+		this.writer.setDaemon(true);
+	}
+
+	public void start() {
+		writer.start();
+	}
+
+	/* Records a charge or refund, from any thread. QTs are by id, -1 for none.
+	 * Returns false if the entry was dropped because the buffer is full. */
+	public boolean record(int player, int from, int to, double amount, boolean bank, int outcome) {
+		while(true) {
+			long t = tail.get();
+			int i = (int)(t & mask);
+			long s = sequence.get(i);
+			if(s == t) {
+				if(tail.compareAndSet(t, t + 1)) {
+					times[i] = System.currentTimeMillis();
+					players[i] = player;
+					froms[i] = from;
+					tos[i] = to;
+					amounts[i] = amount;
+					banks[i] = bank;
+					outcomes[i] = outcome;
+					/* Publishes the slot to the writer */
+					sequence.set(i, t + 1);
+					return true;
+				}
+			} else if(s < t) {
+				/* Still waiting to be written from the last time round */
+				dropped.incrementAndGet();
+				return false;
+			}
+			/* Another thread took this position, try the next */
+		}
+	}
+
+	/* Stops the writer once everything recorded so far is written, for onDisable */
+	public void shutdown() {
+		running = false;
+		writer.interrupt();
+		try {
+			writer.join(5000);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public void run() {
+		SimpleDateFormat time = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+		StringBuilder line = new StringBuilder();
+		try {
+			rotate();
+			while(true) {
+				boolean any = false;
+				while(true) {
+					int i = (int)(head & mask);
+					if(sequence.get(i) != head + 1) {
+						break;
+					}
+					line.setLength(0);
+					line.append(time.format(new Date(times[i]))).append('\t');
+					line.append(plugin.getDiscoveries().getPlayerIds().getName(players[i])).append('\t');
+					line.append(qtName(froms[i])).append('\t');
+					line.append(qtName(tos[i])).append('\t');
+					line.append(amounts[i]).append('\t');
+					line.append(banks[i] ? "bank" : "player").append('\t');
+					line.append(OUTCOMES[outcomes[i]]).append('\n');
+					/* Frees the slot for the next time round */
+					sequence.set(i, head + mask + 1);
+					head++;
+					write(line.toString());
+					any = true;
+				}
+				long d = dropped.get();
+				if(d != droppedReported) {
+					write(time.format(new Date()) + "\t" + (d - droppedReported) + " entries dropped, the log could not keep up\n");
+					QuickTravel.warning((d - droppedReported) + " audit log entries dropped.");
+					droppedReported = d;
+				}
+				if(any == true) {
+					out.flush();
+				} else if(running == false) {
+					break;
+				} else {
+					try {
+						Thread.sleep(100);
+					} catch(InterruptedException e) {
+						/* Woken by shutdown, drain what is left */
+					}
+				}
+			}
+		} catch(IOException e) {
+			QuickTravel.severe("Audit log stopped: " + e);
+		} finally {
+			if(out != null) {
+				try {
+					out.close();
+				} catch(IOException e) {
+				}
+			}
+		}
+	}
+
+	private void write(String s) throws IOException {
+		out.write(s);
+		written += s.length();
+		if(written >= rotateBytes) {
+			rotate();
+		}
+	}
+
+	/* Compresses current.log (if any) into a dated .log.gz, deletes the oldest and starts a new current.log */
+	private void rotate() throws IOException {
+		if(out != null) {
+			out.close();
+			out = null;
+		}
+		folder.mkdirs();
+		File current = new File(folder, "current.log");
+		if(current.exists() && current.length() > 0) {
+			String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(current.lastModified()));
+			File gz = new File(folder, "audit-" + stamp + ".log.gz");
+			for(int n = 1; gz.exists(); n++) {
+				gz = new File(folder, "audit-" + stamp + "-" + n + ".log.gz");
+			}
+			compress(current, gz);
+			current.delete();
+			prune();
+		}
+		out = new FileWriter(current, true);
+		written = 0;
+	}
+
+	private void prune() {
+		File[] files = folder.listFiles();
+		if(files == null) {
+			return;
+		}
+		String[] old = new String[files.length];
+		int n = 0;
+		for(File f : files) {
+			if(f.getName().startsWith("audit-") && f.getName().endsWith(".log.gz")) {
+				old[n++] = f.getName();
+			}
+		}
+		/* Names sort by date */
+		Arrays.sort(old, 0, n);
+		for(int i = 0; i < n - keep; i++) {
+			new File(folder, old[i]).delete();
+		}
+	}
+
+	private static void compress(File from, File to) throws IOException {
+		InputStream in = new FileInputStream(from);
+		try {
+			OutputStream gz = new GZIPOutputStream(new FileOutputStream(to));
+			try {
+				byte[] buf = new byte[8192];
+				int r;
+				while((r = in.read(buf)) > 0) {
+					gz.write(buf, 0, r);
+				}
+			} finally {
+				gz.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/* Name of the QT with this id, from the latest snapshot, writer thread only */
+	private String qtName(int id) {
+		if(id < 0) {
+			return "-";
+		}
+		QTSnapshot s = plugin.getRegistry().getSnapshot();
+		if(s != names) {
+			names = s;
+			for(QTInfo qt : s.getQTs()) {
+				/* Removed QTs keep their last name */
+				qtNames.put(qt.getId(), qt.getName());
+			}
+		}
+		String name = qtNames.get(id);
+		return name != null ? name : "#" + id;
+	}
+}
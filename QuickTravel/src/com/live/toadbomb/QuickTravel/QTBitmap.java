@@ -0,0 +1,386 @@
+package com.live.toadbomb.QuickTravel;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/* A compressed set of non-negative ints in the style of a Roaring bitmap.
+ * Values are grouped by their high 16 bits, each group holding its low 16
+ * bits either as a sorted array (up to 4096 values) or as a 65536 bit map,
+ * whichever is smaller. Not thread safe. */
+public class QTBitmap {
+	private static final int ARRAY_MAX = 4096;
+	private static final int WORDS = 1024;
+
+	/* High 16 bits of each container, sorted */
+	private char[] keys = new char[4];
+	private Container[] containers = new Container[4];
+	private int size = 0;
+
+	public boolean add(int x) {
+		char high = (char)(x >>> 16);
+		int i = find(high);
+		if(i < 0) {
+			i = -i - 1;
+			insert(i, high, new Container());
+		}
+		return containers[i].add((char)x);
+	}
+
+	public boolean remove(int x) {
+		int i = find((char)(x >>> 16));
+		if(i < 0 || !containers[i].remove((char)x)) {
+			return false;
+		}
+		if(containers[i].card == 0) {
+			System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+			System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+			size--;
+			containers[size] = null;
+		}
+		return true;
+	}
+
+	public boolean contains(int x) {
+		int i = find((char)(x >>> 16));
+		return i >= 0 && containers[i].contains((char)x);
+	}
+
+	public int cardinality() {
+		int n = 0;
+		for(int i = 0; i < size; i++) {
+			n += containers[i].card;
+		}
+		return n;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/* Every value, in ascending order */
+	public int[] toArray() {
+		int[] out = new int[cardinality()];
+		int n = 0;
+		for(int i = 0; i < size; i++) {
+			n = containers[i].copyTo(keys[i] << 16, out, n);
+		}
+		return out;
+	}
+
+	/* Values in both this and o */
+	public QTBitmap and(QTBitmap o) {
+		QTBitmap r = new QTBitmap();
+		int i = 0;
+		int j = 0;
+		while(i < size && j < o.size) {
+			if(keys[i] < o.keys[j]) {
+				i++;
+			} else if(keys[i] > o.keys[j]) {
+				j++;
+			} else {
+				r.append(keys[i], containers[i].and(o.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return r;
+	}
+
+	/* Values in either this or o */
+	public QTBitmap or(QTBitmap o) {
+		QTBitmap r = new QTBitmap();
+		int i = 0;
+		int j = 0;
+		while(i < size || j < o.size) {
+			if(j >= o.size || (i < size && keys[i] < o.keys[j])) {
+				r.append(keys[i], containers[i].copy());
+				i++;
+			} else if(i >= size || keys[i] > o.keys[j]) {
+				r.append(o.keys[j], o.containers[j].copy());
+				j++;
+			} else {
+				r.append(keys[i], containers[i].or(o.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return r;
+	}
+
+	/* Values in this but not in o */
+	public QTBitmap andNot(QTBitmap o) {
+		QTBitmap r = new QTBitmap();
+		int j = 0;
+		for(int i = 0; i < size; i++) {
+			while(j < o.size && o.keys[j] < keys[i]) {
+				j++;
+			}
+			if(j < o.size && o.keys[j] == keys[i]) {
+				r.append(keys[i], containers[i].andNot(o.containers[j]));
+			} else {
+				r.append(keys[i], containers[i].copy());
+			}
+		}
+		return r;
+	}
+
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(size);
+		for(int i = 0; i < size; i++) {
+			Container c = containers[i];
+			out.writeChar(keys[i]);
+			out.writeInt(c.card);
+			if(c.array != null) {
+				for(int n = 0; n < c.card; n++) {
+					out.writeChar(c.array[n]);
+				}
+			} else {
+				for(int n = 0; n < WORDS; n++) {
+					out.writeLong(c.bits[n]);
+				}
+			}
+		}
+	}
+
+	public static QTBitmap read(DataInput in) throws IOException {
+		QTBitmap r = new QTBitmap();
+		int n = in.readInt();
+		for(int i = 0; i < n; i++) {
+			char key = in.readChar();
+			Container c = new Container();
+			c.card = in.readInt();
+			if(c.card <= ARRAY_MAX) {
+				c.array = new char[Math.max(4, c.card)];
+				for(int v = 0; v < c.card; v++) {
+					c.array[v] = in.readChar();
+				}
+			} else {
+				c.array = null;
+				c.bits = new long[WORDS];
+				for(int w = 0; w < WORDS; w++) {
+					c.bits[w] = in.readLong();
+				}
+			}
+			r.append(key, c);
+		}
+		return r;
+	}
+
+	private int find(char high) {
+		return Arrays.binarySearch(keys, 0, size, high);
+	}
+
+	private void insert(int i, char high, Container c) {
+		if(size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			containers = Arrays.copyOf(containers, size * 2);
+		}
+		System.arraycopy(keys, i, keys, i + 1, size - i);
+		System.arraycopy(containers, i, containers, i + 1, size - i);
+		keys[i] = high;
+		containers[i] = c;
+		size++;
+	}
+
+	/* Adds a container after every existing one, skipping empty ones */
+	private void append(char high, Container c) {
+		if(c.card > 0) {
+			insert(size, high, c);
+		}
+	}
+
+	/* The low 16 bits of every value sharing the same high 16 bits */
+	private static class Container {
+		/* Sorted values while there are few of them, otherwise null */
+		char[] array = new char[4];
+		/* One bit per value once there are many, otherwise null */
+		long[] bits = null;
+		int card = 0;
+
+		boolean contains(char v) {
+			if(array != null) {
+				return Arrays.binarySearch(array, 0, card, v) >= 0;
+			}
+			return (bits[v >>> 6] & (1L << v)) != 0;
+		}
+
+		boolean add(char v) {
+			if(array != null) {
+				int i = Arrays.binarySearch(array, 0, card, v);
+				if(i >= 0) {
+					return false;
+				}
+				if(card >= ARRAY_MAX) {
+					toBits();
+					return add(v);
+				}
+				i = -i - 1;
+				if(card == array.length) {
+					array = Arrays.copyOf(array, Math.min(ARRAY_MAX, card * 2));
+				}
+				System.arraycopy(array, i, array, i + 1, card - i);
+				array[i] = v;
+				card++;
+				return true;
+			}
+			long mask = 1L << v;
+			if((bits[v >>> 6] & mask) != 0) {
+				return false;
+			}
+			bits[v >>> 6] |= mask;
+			card++;
+			return true;
+		}
+
+		boolean remove(char v) {
+			if(array != null) {
+				int i = Arrays.binarySearch(array, 0, card, v);
+				if(i < 0) {
+					return false;
+				}
+				System.arraycopy(array, i + 1, array, i, card - i - 1);
+				card--;
+				return true;
+			}
+			long mask = 1L << v;
+			if((bits[v >>> 6] & mask) == 0) {
+				return false;
+			}
+			bits[v >>> 6] &= ~mask;
+			card--;
+			if(card <= ARRAY_MAX) {
+				toArray();
+			}
+			return true;
+		}
+
+		int copyTo(int high, int[] out, int n) {
+			if(array != null) {
+				for(int i = 0; i < card; i++) {
+					out[n++] = high | array[i];
+				}
+				return n;
+			}
+			for(int w = 0; w < WORDS; w++) {
+				long word = bits[w];
+				while(word != 0) {
+					out[n++] = high | (w << 6) | Long.numberOfTrailingZeros(word);
+					word &= word - 1;
+				}
+			}
+			return n;
+		}
+
+		Container copy() {
+			Container c = new Container();
+			c.card = card;
+			c.array = array == null ? null : Arrays.copyOf(array, Math.max(4, card));
+			c.bits = bits == null ? null : bits.clone();
+			return c;
+		}
+
+		Container and(Container o) {
+			if(array != null || o.array != null) {
+				/* At least one side is small, keep the values of that side found in the other */
+				Container small = array != null ? this : o;
+				Container other = small == this ? o : this;
+				Container c = new Container();
+				c.array = new char[Math.max(4, small.card)];
+				for(int i = 0; i < small.card; i++) {
+					if(other.contains(small.array[i])) {
+						c.array[c.card++] = small.array[i];
+					}
+				}
+				return c;
+			}
+			long[] words = new long[WORDS];
+			for(int w = 0; w < WORDS; w++) {
+				words[w] = bits[w] & o.bits[w];
+			}
+			return fromBits(words);
+		}
+
+		Container or(Container o) {
+			long[] words = bitsCopy();
+			if(o.array != null) {
+				for(int i = 0; i < o.card; i++) {
+					words[o.array[i] >>> 6] |= 1L << o.array[i];
+				}
+			} else {
+				for(int w = 0; w < WORDS; w++) {
+					words[w] |= o.bits[w];
+				}
+			}
+			return fromBits(words);
+		}
+
+		Container andNot(Container o) {
+			if(array != null) {
+				Container c = new Container();
+				c.array = new char[Math.max(4, card)];
+				for(int i = 0; i < card; i++) {
+					if(!o.contains(array[i])) {
+						c.array[c.card++] = array[i];
+					}
+				}
+				return c;
+			}
+			long[] words = bits.clone();
+			if(o.array != null) {
+				for(int i = 0; i < o.card; i++) {
+					words[o.array[i] >>> 6] &= ~(1L << o.array[i]);
+				}
+			} else {
+				for(int w = 0; w < WORDS; w++) {
+					words[w] &= ~o.bits[w];
+				}
+			}
+			return fromBits(words);
+		}
+
+		private long[] bitsCopy() {
+			if(bits != null) {
+				return bits.clone();
+			}
+			long[] words = new long[WORDS];
+			for(int i = 0; i < card; i++) {
+				words[array[i] >>> 6] |= 1L << array[i];
+			}
+			return words;
+		}
+
+		private void toBits() {
+			bits = bitsCopy();
+			array = null;
+		}
+
+		private void toArray() {
+			char[] values = new char[Math.max(4, card)];
+			int n = 0;
+			for(int w = 0; w < WORDS; w++) {
+				long word = bits[w];
+				while(word != 0) {
+					values[n++] = (char)((w << 6) | Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			array = values;
+			bits = null;
+		}
+
+		private static Container fromBits(long[] words) {
+			Container c = new Container();
+			c.array = null;
+			c.bits = words;
+			for(int w = 0; w < WORDS; w++) {
+				c.card += Long.bitCount(words[w]);
+			}
+			if(c.card <= ARRAY_MAX) {
+				c.toArray();
+			}
+			return c;
+		}
+	}
+}
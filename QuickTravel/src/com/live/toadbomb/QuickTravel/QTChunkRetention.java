@@ -0,0 +1,186 @@
+package com.live.toadbomb.QuickTravel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bukkit.World;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkUnloadEvent;
+
+/* Keeps the chunks around the busiest destinations loaded, so trips to them
+ * do not wait for a chunk load. Every so often the destinations are ranked
+ * by recent trips from QTRouteStats and the top ones (up to a limit per
+ * world and a limit on chunks overall) are chosen. Their chunks are loaded
+ * a few at a time while the server is not overloaded, and unloads of them
+ * are cancelled. Chunks of destinations that drop out are left to unload
+ * as normal. Main thread only. */
+public class QTChunkRetention implements Listener, Runnable {
+	/* Most chunks queued for loading at once, the rest wait for the next recompute */
+	private static final int MAX_PENDING = 256;
+
+	private final QuickTravel plugin;
+	private final int top;
+	private final int perWorld;
+	private final int maxChunks;
+	private final int radius;
+	private final int loadsPerTick;
+	/* Chunk keys to keep, by world name */
+	private Map<String, Set<Long>> retained = new HashMap<String, Set<Long>>();
+	/* Retained chunks still to be loaded */
+	private final LinkedList<Pending> pending = new LinkedList<Pending>();
+
+	public QTChunkRetention(QuickTravel plugin, int top, int perWorld, int maxChunks, int radius, int loadsPerTick) {
+		this.plugin = plugin;
+		this.top = top;
+		this.perWorld = perWorld;
+		this.maxChunks = maxChunks;
+		this.radius = Math.max(0, radius);
+		this.loadsPerTick = Math.max(1, loadsPerTick);
+	}
+
+	/* How many chunks are being kept loaded */
+	public int size() {
+		int n = 0;
+		for(Set<Long> chunks : retained.values()) {
+			n += chunks.size();
+		}
+		return n;
+	}
+
+	/* Chooses which chunks to keep from the latest route stats */
+	public void recompute() {
+		QTRouteStats stats = plugin.getRouteStats();
+		if(stats == null) {
+			return;
+		}
+		final Map<Integer, int[]> trips = new HashMap<Integer, int[]>();
+		for(QTRouteStats.Route r : stats.getRoutes()) {
+			int[] t = trips.get(r.to);
+			if(t == null) {
+				t = new int[2];
+				trips.put(r.to, t);
+			}
+			t[0] += r.recentTrips;
+			t[1] += r.trips;
+		}
+		List<QTInfo> ranked = new ArrayList<QTInfo>();
+		for(QTInfo qt : plugin.getRegistry().getSnapshot().getQTs()) {
+			int[] t = trips.get(qt.getId());
+			if(t != null && t[0] > 0) {
+				ranked.add(qt);
+			}
+		}
+		Collections.sort(ranked, new Comparator<QTInfo>() {
+			public int compare(QTInfo a, QTInfo b) {
+				int[] ta = trips.get(a.getId());
+				int[] tb = trips.get(b.getId());
+				if(ta[0] != tb[0]) {
+					return ta[0] > tb[0] ? -1 : 1;
+				}
+				return ta[1] == tb[1] ? 0 : (ta[1] > tb[1] ? -1 : 1);
+			}
+		});
+		Map<String, Set<Long>> chosen = new HashMap<String, Set<Long>>();
+		Map<String, Integer> worldCount = new HashMap<String, Integer>();
+		int destinations = 0;
+		int chunks = 0;
+		for(QTInfo qt : ranked) {
+			if(destinations >= top) {
+				break;
+			}
+			Integer inWorld = worldCount.get(qt.getWorld());
+			if(inWorld != null && inWorld >= perWorld) {
+				continue;
+			}
+			Set<Long> keys = chosen.get(qt.getWorld());
+			if(keys == null) {
+				keys = new HashSet<Long>();
+			}
+			int cx = (int)Math.floor(qt.getDestX()) >> 4;
+			int cz = (int)Math.floor(qt.getDestZ()) >> 4;
+			List<Long> area = new ArrayList<Long>();
+			for(int x = cx - radius; x <= cx + radius; x++) {
+				for(int z = cz - radius; z <= cz + radius; z++) {
+					long key = key(x, z);
+					if(!keys.contains(key)) {
+						area.add(key);
+					}
+				}
+			}
+			if(chunks + area.size() > maxChunks) {
+				/* A smaller area further down may still fit */
+				continue;
+			}
+			keys.addAll(area);
+			chosen.put(qt.getWorld(), keys);
+			chunks += area.size();
+			destinations++;
+			worldCount.put(qt.getWorld(), inWorld == null ? 1 : inWorld + 1);
+		}
+		retained = chosen;
+		pending.clear();
+		for(Map.Entry<String, Set<Long>> e : chosen.entrySet()) {
+			World w = plugin.getServer().getWorld(e.getKey());
+			if(w == null) {
+				continue;
+			}
+			for(Long key : e.getValue()) {
+				if(pending.size() >= MAX_PENDING) {
+					return;
+				}
+				int x = (int)(key >> 32);
+				int z = (int)key.longValue();
+				if(!w.isChunkLoaded(x, z)) {
+					pending.add(new Pending(e.getKey(), x, z));
+				}
+			}
+		}
+	}
+
+	/* Loads a few retained chunks each tick, from a sync repeating task */
+	public void run() {
+		if(pending.isEmpty() || plugin.getLoadLevel() != QTLoadMonitor.NORMAL) {
+			return;
+		}
+		for(int i = 0; i < loadsPerTick && !pending.isEmpty(); i++) {
+			Pending p = pending.removeFirst();
+			World w = plugin.getServer().getWorld(p.world);
+			if(w != null && !w.isChunkLoaded(p.x, p.z)) {
+				w.loadChunk(p.x, p.z);
+			}
+		}
+	}
+
+	@EventHandler(priority = EventPriority.NORMAL)
+	public void onChunkUnload(ChunkUnloadEvent event) {
+		Set<Long> keys = retained.get(event.getWorld().getName());
+		if(keys != null && keys.contains(key(event.getChunk().getX(), event.getChunk().getZ()))) {
+			event.setCancelled(true);
+		}
+	}
+
+	private static long key(int x, int z) {
+		return ((long)x << 32) | (z & 0xffffffffL);
+	}
+
+	private static class Pending {
+		final String world;
+		final int x;
+		final int z;
+
+		Pending(String world, int x, int z) {
+			this.world = world;
+			this.x = x;
+			this.z = z;
+		}
+	}
+}
@@ -0,0 +1,243 @@
+package com.live.toadbomb.QuickTravel;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.entity.EntityDamageEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+/* Travel warmups and cooldowns, all timed by one QTTimingWheel.
+ * A warmup makes the player stand still for a while before the travel goes
+ * ahead, and is called off if they move to another block or get hurt.
+ * Cooldowns stop a player travelling again too soon, either anywhere or to
+ * the same destination, and are kept as the wheel tick they end on in maps
+ * of plain longs. Main thread only. */
+public class QTCooldowns implements Listener {
+	/* How often ended cooldowns are cleared out, in ticks */
+	private static final long SWEEP_TICKS = 1200;
+
+	public interface Warmup {
+		/* Called once, with null if the warmup finished or why it was called off */
+		public void done(String cancelled);
+	}
+
+	private final QuickTravel plugin;
+	private final QTTimingWheel wheel;
+	private final long warmupTicks;
+	private final boolean cancelOnMove;
+	private final boolean cancelOnDamage;
+	private final long cooldownTicks;
+	private final long routeCooldownTicks;
+	/* Tick each player's cooldown ends, by player id */
+	private final LongMap players = new LongMap();
+	/* Tick each player's cooldown for a destination ends, by player id and QT id */
+	private final LongMap routes = new LongMap();
+	/* Warmups under way, by player id */
+	private final Map<Integer, WarmupTimer> warmups = new HashMap<Integer, WarmupTimer>();
+
+	public QTCooldowns(QuickTravel plugin, final QTTimingWheel wheel, long warmupTicks, boolean cancelOnMove, boolean cancelOnDamage, long cooldownTicks, long routeCooldownTicks) {
+		this.plugin = plugin;
+		this.wheel = wheel;
+		this.warmupTicks = warmupTicks;
+		this.cancelOnMove = cancelOnMove;
+		this.cancelOnDamage = cancelOnDamage;
+		this.cooldownTicks = cooldownTicks;
+		this.routeCooldownTicks = routeCooldownTicks;
+		wheel.schedule(new QTTimingWheel.Timer() {
+			public void run() {
+				players.removeBefore(wheel.getTick());
+				routes.removeBefore(wheel.getTick());
+				wheel.schedule(this, SWEEP_TICKS);
+			}
+		}, SWEEP_TICKS);
+	}
+
+	public long getWarmupTicks() {
+		return warmupTicks;
+	}
+
+	/* Ticks until the player may travel to the QT with id qtId, 0 if they may now */
+	public long remaining(int playerId, int qtId) {
+		long now = wheel.getTick();
+		long wait = players.get(playerId) - now;
+		long routeWait = routes.get(route(playerId, qtId)) - now;
+		return Math.max(0, Math.max(wait, routeWait));
+	}
+
+	/* Starts the cooldowns after a travel */
+	public void travelled(int playerId, int qtId) {
+		long now = wheel.getTick();
+		if(cooldownTicks > 0) {
+			players.put(playerId, now + cooldownTicks);
+		}
+		if(routeCooldownTicks > 0) {
+			routes.put(route(playerId, qtId), now + routeCooldownTicks);
+		}
+	}
+
+	/* Starts a warmup for p, replacing any they already had.
+	 * Returns false, without calling w, if there is no warmup to wait for. */
+	public boolean warmup(Player p, int playerId, Warmup w) {
+		if(warmupTicks <= 0) {
+			return false;
+		}
+		cancel(playerId, "You started another QuickTravel.");
+		WarmupTimer t = new WarmupTimer(playerId, p.getLocation(), w);
+		warmups.put(playerId, t);
+		wheel.schedule(t, warmupTicks);
+		return true;
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onPlayerMove(PlayerMoveEvent event) {
+		if(warmups.isEmpty() || cancelOnMove == false || event.isCancelled()) {
+			return;
+		}
+		Location to = event.getTo();
+		WarmupTimer t = warmups.get(plugin.getPlayerId(event.getPlayer()));
+		if(t != null && (to.getBlockX() != t.at.getBlockX() || to.getBlockY() != t.at.getBlockY() || to.getBlockZ() != t.at.getBlockZ() || to.getWorld() != t.at.getWorld())) {
+			cancel(t.playerId, "You moved.");
+		}
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onEntityDamage(EntityDamageEvent event) {
+		if(warmups.isEmpty() || cancelOnDamage == false || event.isCancelled() || !(event.getEntity() instanceof Player)) {
+			return;
+		}
+		WarmupTimer t = warmups.get(plugin.getPlayerId((Player)event.getEntity()));
+		if(t != null) {
+			cancel(t.playerId, "You were hurt.");
+		}
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onPlayerQuit(PlayerQuitEvent event) {
+		if(warmups.isEmpty()) {
+			return;
+		}
+		WarmupTimer t = warmups.get(plugin.getPlayerId(event.getPlayer()));
+		if(t != null) {
+			cancel(t.playerId, "You left.");
+		}
+	}
+
+	private void cancel(int playerId, String why) {
+		WarmupTimer t = warmups.remove(playerId);
+		if(t != null) {
+			wheel.cancel(t);
+			t.warmup.done(why);
+		}
+	}
+
+	private static long route(int playerId, int qtId) {
+		return ((long)playerId << 32) | (qtId & 0xffffffffL);
+	}
+
+	private class WarmupTimer extends QTTimingWheel.Timer {
+		final int playerId;
+		final Location at;
+		final Warmup warmup;
+
+		WarmupTimer(int playerId, Location at, Warmup warmup) {
+			this.playerId = playerId;
+			this.at = at;
+			this.warmup = warmup;
+		}
+
+		public void run() {
+			if(warmups.get(playerId) == this) {
+				warmups.remove(playerId);
+			}
+			warmup.done(null);
+		}
+	}
+
+	/* Open addressing map of long keys to long values, 0 for missing */
+	private static class LongMap {
+		static final long EMPTY = -1L;
+
+		long[] keys = emptyKeys(16);
+		long[] values = new long[16];
+		int size = 0;
+
+		long get(long key) {
+			int i = slot(key);
+			return keys[i] == EMPTY ? 0 : values[i];
+		}
+
+		void put(long key, long value) {
+			if(size * 2 >= keys.length) {
+				grow();
+			}
+			int i = slot(key);
+			if(keys[i] == EMPTY) {
+				keys[i] = key;
+				size++;
+			}
+			values[i] = value;
+		}
+
+		/* Drops every entry whose value is below tick */
+		void removeBefore(long tick) {
+			int n = 0;
+			for(int i = 0; i < keys.length; i++) {
+				if(keys[i] != EMPTY && values[i] >= tick) {
+					n++;
+				}
+			}
+			if(n == size) {
+				return;
+			}
+			long[] oldKeys = keys;
+			long[] oldValues = values;
+			int capacity = 16;
+			while(n * 2 >= capacity) {
+				capacity *= 2;
+			}
+			keys = emptyKeys(capacity);
+			values = new long[capacity];
+			size = 0;
+			for(int i = 0; i < oldKeys.length; i++) {
+				if(oldKeys[i] != EMPTY && oldValues[i] >= tick) {
+					put(oldKeys[i], oldValues[i]);
+				}
+			}
+		}
+
+		private int slot(long key) {
+			int mask = keys.length - 1;
+			int i = (int)((key ^ (key >>> 29)) * 0x9E3779B9L >>> 7) & mask;
+			while(keys[i] != EMPTY && keys[i] != key) {
+				i = (i + 1) & mask;
+			}
+			return i;
+		}
+
+		private void grow() {
+			long[] oldKeys = keys;
+			long[] oldValues = values;
+			keys = emptyKeys(oldKeys.length * 2);
+			values = new long[oldKeys.length * 2];
+			size = 0;
+			for(int i = 0; i < oldKeys.length; i++) {
+				if(oldKeys[i] != EMPTY) {
+					put(oldKeys[i], oldValues[i]);
+				}
+			}
+		}
+
+		private static long[] emptyKeys(int capacity) {
+			long[] k = new long[capacity];
+			Arrays.fill(k, EMPTY);
+			return k;
+		}
+	}
+}
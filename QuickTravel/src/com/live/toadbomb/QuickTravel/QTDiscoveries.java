@@ -0,0 +1,587 @@
+package com.live.toadbomb.QuickTravel;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+
+/* Which QTs each player has discovered, one file per player id in players/.
+ * Only online players are kept in memory, plus a few who left recently so
+ * a quick rejoin does not touch the disk. Records are read ahead of time
+ * at pre-login, or in the background on join when that was missed, and
+ * every read and write of the files happens in order on one background
+ * thread. Records can be read from any thread.
+ * Who has discovered each QT, including offline players, is kept as a
+ * bitmap of player ids saved to discoverers.dat now and then. The player
+ * files are the real record, the bitmaps are topped up from them on join. */
+public class QTDiscoveries {
+	/* How long a prefetched record waits for its player to join, in ms */
+	private static final long PREFETCH_TTL = 60000;
+
+	public interface Callback {
+		/* Called with how many player files were changed */
+		public void done(int files);
+	}
+
+	private final QuickTravel plugin;
+	private final File folder;
+	private final ExecutorService io;
+	/* By player id */
+	private final Map<Integer, Record> online = new ConcurrentHashMap<Integer, Record>();
+	private final Map<Integer, Record> prefetched = new ConcurrentHashMap<Integer, Record>();
+	/* Players who quit recently, oldest dropped first */
+	private final Map<Integer, Record> recent;
+	private final QTPlayerIds ids;
+	/* Ids of the players who discovered each QT, by location key. Main thread only */
+	private final Map<String, QTBitmap> discoverers = new HashMap<String, QTBitmap>();
+	private boolean indexChanged = false;
+
+	public QTDiscoveries(QuickTravel plugin, final int recentSize) {
+		this.plugin = plugin;
+		this.folder = new File(plugin.getDataFolder(), "players");
+		this.recent = Collections.synchronizedMap(new LinkedHashMap<Integer, Record>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<Integer, Record> eldest) {
+				return size() > recentSize;
+			}
+		});
+		this.io = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "QuickTravel Discoveries");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this.ids = new QTPlayerIds(folder, io);
+		renameFiles();
+		loadIndex();
+	}
+
+	/* The id table every per player structure is keyed by */
+	public QTPlayerIds getPlayerIds() {
+		return ids;
+	}
+
+	/* Finishes any pending writes, for onDisable */
+	public void shutdown() {
+		saveIndex();
+		io.shutdown();
+		try {
+			if(!io.awaitTermination(10, TimeUnit.SECONDS)) {
+				QuickTravel.warning("Some discoveries could not be saved in time.");
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/* Reads name's record ahead of their join, called from the login thread */
+	public void prefetch(String name) {
+		int key = ids.get(name);
+		if(key < 0) {
+			/* Never seen before, nothing to read */
+			return;
+		}
+		if(online.containsKey(key) || recent.containsKey(key) || prefetched.containsKey(key)) {
+			return;
+		}
+		prefetched.put(key, load(key));
+	}
+
+	/* Drops name's prefetched record, for a login refused after pre-login */
+	public void cancelPrefetch(String name) {
+		int key = ids.get(name);
+		if(key >= 0) {
+			prefetched.remove(key);
+		}
+	}
+
+	/* Drops prefetched records whose player never joined, main thread only */
+	public void evictPrefetched() {
+		long now = System.nanoTime();
+		Iterator<Record> it = prefetched.values().iterator();
+		while(it.hasNext()) {
+			if(now - it.next().created > PREFETCH_TTL * 1000000L) {
+				it.remove();
+			}
+		}
+	}
+
+	/* Makes p's record resident, from the prefetch or recent cache if possible. Main thread only */
+	public void join(Player p) {
+		final int key = plugin.getPlayerId(p);
+		if(online.containsKey(key)) {
+			return;
+		}
+		Record r = prefetched.remove(key);
+		if(r == null) {
+			r = recent.remove(key);
+		}
+		if(r != null) {
+			online.put(key, r);
+			indexAll(key, r);
+			return;
+		}
+		/* Not prefetched, e.g. players already online when the plugin was enabled.
+		 * Read in the background, until then the record is empty and not loaded. */
+		final Record loading = new Record(new ArrayList<String>());
+		loading.loaded = false;
+		online.put(key, loading);
+		io.execute(new Runnable() {
+			public void run() {
+				final List<String> keys = read(key);
+				if(plugin.isEnabled() == false) {
+					return;
+				}
+				plugin.getServer().getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
+					public void run() {
+						loading.keys = Collections.unmodifiableSet(new HashSet<String>(keys));
+						loading.loaded = true;
+						if(online.get(key) == loading) {
+							indexAll(key, loading);
+						}
+					}
+				});
+			}
+		});
+	}
+
+	public void quit(Player p) {
+		int key = plugin.getPlayerId(p);
+		Record r = online.remove(key);
+		prefetched.remove(key);
+		if(r != null && r.loaded == true) {
+			recent.put(key, r);
+		}
+	}
+
+	/* Whether the player with this id has discovered the QT with this location key.
+	 * Only known for players who are online or quit recently, false otherwise. */
+	public boolean hasDiscovered(int id, String qtKey) {
+		Set<String> keys = getDiscovered(id);
+		return keys != null && keys.contains(qtKey);
+	}
+
+	/* Location keys of every QT the named player has discovered, or null when not loaded */
+	public Set<String> getDiscovered(String name) {
+		return getDiscovered(ids.get(name));
+	}
+
+	/* Location keys of every QT the player with this id has discovered, or null when not loaded */
+	public Set<String> getDiscovered(int id) {
+		Integer key = id;
+		Record r = online.get(key);
+		if(r == null) {
+			r = recent.get(key);
+		}
+		if(r == null) {
+			r = prefetched.get(key);
+		}
+		return r == null ? null : r.keys;
+	}
+
+	/* Records that p discovered a QT, returns false if they already had. Main thread only */
+	public boolean discover(Player p, String qtKey) {
+		join(p);
+		final int key = plugin.getPlayerId(p);
+		Record r = online.get(key);
+		if(r.loaded == false) {
+			/* Still being read, a later move will discover it again */
+			return false;
+		}
+		if(r.keys.contains(qtKey)) {
+			return false;
+		}
+		Set<String> keys = new HashSet<String>(r.keys);
+		keys.add(qtKey);
+		r.keys = Collections.unmodifiableSet(keys);
+		final List<String> list = new ArrayList<String>(keys);
+		io.execute(new Runnable() {
+			public void run() {
+				write(key, list);
+			}
+		});
+		index(qtKey, key);
+		return true;
+	}
+
+	/* How many players, online or not, have discovered the QT with this location key */
+	public int countDiscoverers(String qtKey) {
+		QTBitmap b = discoverers.get(qtKey);
+		return b == null ? 0 : b.cardinality();
+	}
+
+	/* Ids of every player who has discovered the QT, a copy the caller may change */
+	public QTBitmap getDiscoverers(String qtKey) {
+		QTBitmap b = discoverers.get(qtKey);
+		return b == null ? new QTBitmap() : b.or(new QTBitmap());
+	}
+
+	/* Last seen name of the player with an id from getDiscoverers, lower case */
+	public String getPlayerName(int id) {
+		return ids.getName(id);
+	}
+
+	/* Writes discoverers.dat in the background if anything changed, main thread only */
+	public void saveIndex() {
+		if(indexChanged == false) {
+			return;
+		}
+		final byte[] data;
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(discoverers.size());
+			for(Map.Entry<String, QTBitmap> e : discoverers.entrySet()) {
+				out.writeUTF(e.getKey());
+				e.getValue().write(out);
+			}
+			out.flush();
+			data = bytes.toByteArray();
+		} catch(IOException e) {
+			QuickTravel.severe("Could not save the discovery index: " + e);
+			return;
+		}
+		indexChanged = false;
+		io.execute(new Runnable() {
+			public void run() {
+				File f = new File(folder, "discoverers.dat");
+				File tmp = new File(folder, "discoverers.dat.tmp");
+				try {
+					folder.mkdirs();
+					FileOutputStream out = new FileOutputStream(tmp);
+					try {
+						out.write(data);
+					} finally {
+						out.close();
+					}
+					if(!tmp.renameTo(f)) {
+						/* Windows will not rename over an existing file */
+						f.delete();
+						tmp.renameTo(f);
+					}
+				} catch(IOException e) {
+					QuickTravel.severe("Could not save " + f + ": " + e);
+				}
+			}
+		});
+	}
+
+	/* Drops every QT the snapshot no longer has from the index, e.g. after one
+	 * was taken out of locations.yml. The records and player files are left
+	 * alone, so a QT put back keeps its discoverers as they rejoin; purgeQTs
+	 * removes them for good. Does nothing with no QTs at all, which is what a
+	 * locations.yml that failed to parse looks like. Main thread only. */
+	public void retainQTs(QTSnapshot snapshot) {
+		if(snapshot.getQTs().isEmpty()) {
+			return;
+		}
+		int removed = 0;
+		Iterator<String> it = discoverers.keySet().iterator();
+		while(it.hasNext()) {
+			if(snapshot.getQTByKey(it.next()) == null) {
+				it.remove();
+				indexChanged = true;
+				removed++;
+			}
+		}
+		if(removed > 0) {
+			QuickTravel.info("Stopped counting discoverers of " + removed + " QTs that no longer exist.");
+		}
+	}
+
+	/* Removes every QT the snapshot no longer has from the records in memory
+	 * and, in the background, from every player file. Cannot be undone, for
+	 * /qt purge only. Returns false, doing nothing, if there are no QTs at
+	 * all. done is run on the main thread with the number of files changed.
+	 * Main thread only. */
+	public boolean purgeQTs(final QTSnapshot snapshot, final Callback done) {
+		if(snapshot.getQTs().isEmpty()) {
+			return false;
+		}
+		retainQTs(snapshot);
+		for(Record r : online.values()) {
+			retain(r, snapshot);
+		}
+		synchronized(recent) {
+			for(Record r : recent.values()) {
+				retain(r, snapshot);
+			}
+		}
+		for(Record r : prefetched.values()) {
+			retain(r, snapshot);
+		}
+		io.execute(new Runnable() {
+			public void run() {
+				int changed = 0;
+				File[] files = folder.listFiles();
+				if(files != null) {
+					for(File pf : files) {
+						int id = fileId(pf);
+						if(id < 0) {
+							continue;
+						}
+						List<String> keys = read(id);
+						Iterator<String> it = keys.iterator();
+						boolean stale = false;
+						while(it.hasNext()) {
+							if(snapshot.getQTByKey(it.next()) == null) {
+								it.remove();
+								stale = true;
+							}
+						}
+						if(stale == true) {
+							write(id, keys);
+							changed++;
+						}
+					}
+				}
+				final int count = changed;
+				if(plugin.isEnabled() == false) {
+					return;
+				}
+				plugin.getServer().getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
+					public void run() {
+						done.done(count);
+					}
+				});
+			}
+		});
+		return true;
+	}
+
+	private static void retain(Record r, QTSnapshot snapshot) {
+		Set<String> keys = new HashSet<String>();
+		for(String qtKey : r.keys) {
+			if(snapshot.getQTByKey(qtKey) != null) {
+				keys.add(qtKey);
+			}
+		}
+		if(keys.size() < r.keys.size()) {
+			r.keys = Collections.unmodifiableSet(keys);
+		}
+	}
+
+	/* Catches the index up on everything in a record, e.g. after a crash */
+	private void indexAll(int id, Record r) {
+		for(String qtKey : r.keys) {
+			index(qtKey, id);
+		}
+	}
+
+	private void index(String qtKey, int id) {
+		QTBitmap b = discoverers.get(qtKey);
+		if(b == null) {
+			b = new QTBitmap();
+			discoverers.put(qtKey, b);
+		}
+		if(b.add(id)) {
+			indexChanged = true;
+		}
+	}
+
+	/* Reads discoverers.dat, or builds it from the player files the first time */
+	private void loadIndex() {
+		File f = new File(folder, "discoverers.dat");
+		if(f.exists()) {
+			try {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+				try {
+					int n = in.readInt();
+					for(int i = 0; i < n; i++) {
+						String qtKey = in.readUTF();
+						discoverers.put(qtKey, QTBitmap.read(in));
+					}
+				} finally {
+					in.close();
+				}
+				return;
+			} catch(IOException e) {
+				QuickTravel.warning("Could not read " + f + ", rebuilding it: " + e);
+				discoverers.clear();
+			}
+		}
+		File[] files = folder.listFiles();
+		if(files == null) {
+			return;
+		}
+		for(File pf : files) {
+			int id = fileId(pf);
+			if(id < 0) {
+				continue;
+			}
+			for(String qtKey : read(id)) {
+				index(qtKey, id);
+			}
+		}
+		indexChanged = true;
+	}
+
+	/* Renames files from when they were named after the player, <name>.yml to <id>.yml */
+	private void renameFiles() {
+		File[] files = folder.listFiles();
+		if(files == null) {
+			return;
+		}
+		int renamed = 0;
+		for(File pf : files) {
+			String name = pf.getName();
+			if(!name.endsWith(".yml") || fileId(pf) >= 0) {
+				continue;
+			}
+			int id = ids.intern(name.substring(0, name.length() - 4));
+			File f = new File(folder, id + ".yml");
+			List<String> keys = readFile(pf);
+			if(f.exists()) {
+				/* Both exist, keep everything from either */
+				Set<String> all = new HashSet<String>(readFile(f));
+				all.addAll(keys);
+				keys = new ArrayList<String>(all);
+			}
+			write(id, keys);
+			pf.delete();
+			renamed++;
+		}
+		if(renamed > 0) {
+			QuickTravel.info("Renamed " + renamed + " discovery files to player ids.");
+		}
+	}
+
+	/* Player id a file in players/ belongs to, or -1 if it is not a player file */
+	private static int fileId(File f) {
+		String name = f.getName();
+		if(!name.endsWith(".yml")) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(name.substring(0, name.length() - 4));
+		} catch(NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/* Moves the old discovered-by lists out of locations.yml, returns true if there were any */
+	@SuppressWarnings("unchecked")
+	public boolean migrate(FileConfiguration locations) {
+		List<Object> locList = (List<Object>) locations.getList("list");
+		if(locList == null) {
+			return false;
+		}
+		Map<Integer, Set<String>> byPlayer = new HashMap<Integer, Set<String>>();
+		for(Object o : locList) {
+			String v = o.toString();
+			List<Object> dList = (List<Object>) locations.getList("locations." + v + ".discovered-by");
+			if(dList == null) {
+				continue;
+			}
+			for(Object name : dList) {
+				int key = ids.intern(name.toString());
+				Set<String> keys = byPlayer.get(key);
+				if(keys == null) {
+					keys = new HashSet<String>();
+					byPlayer.put(key, keys);
+				}
+				keys.add(v);
+				index(v, key);
+			}
+			locations.set("locations." + v + ".discovered-by", null);
+		}
+		if(byPlayer.isEmpty()) {
+			return false;
+		}
+		for(Map.Entry<Integer, Set<String>> e : byPlayer.entrySet()) {
+			/* Keep anything already in the player's file */
+			Set<String> keys = new HashSet<String>(read(e.getKey()));
+			keys.addAll(e.getValue());
+			write(e.getKey(), new ArrayList<String>(keys));
+		}
+		QuickTravel.info("Moved discoveries for " + byPlayer.size() + " players to " + folder.getName() + "/.");
+		return true;
+	}
+
+	/* Reads a record on the io thread, so it sees every earlier write. Blocks, login thread only */
+	private Record load(final int key) {
+		try {
+			List<String> keys = io.submit(new Callable<List<String>>() {
+				public List<String> call() {
+					return read(key);
+				}
+			}).get();
+			return new Record(keys);
+		} catch(Exception e) {
+			QuickTravel.severe("Could not load discoveries for " + key + ": " + e);
+			return new Record(new ArrayList<String>());
+		}
+	}
+
+	private List<String> read(int key) {
+		return readFile(new File(folder, key + ".yml"));
+	}
+
+	private static List<String> readFile(File f) {
+		List<String> keys = new ArrayList<String>();
+		if(f.exists()) {
+			List<?> list = YamlConfiguration.loadConfiguration(f).getList("discovered");
+			if(list != null) {
+				for(Object o : list) {
+					keys.add(o.toString());
+				}
+			}
+		}
+		return keys;
+	}
+
+	private void write(int key, List<String> keys) {
+		folder.mkdirs();
+		File f = new File(folder, key + ".yml");
+		YamlConfiguration yml = new YamlConfiguration();
+		/* Who this is, for anyone reading the file */
+		UUID uuid = ids.getUniqueId(key);
+		yml.set("name", ids.getName(key));
+		yml.set("uuid", uuid == null ? null : uuid.toString());
+		yml.set("discovered", keys);
+		try {
+			yml.save(f);
+		} catch(IOException e) {
+			QuickTravel.severe("Could not save discoveries to " + f + ": " + e);
+		}
+	}
+
+	private static class Record {
+		/* Replaced, never changed, so readers on other threads always see a whole set */
+		volatile Set<String> keys;
+		/* False while join is still reading it */
+		volatile boolean loaded = true;
+		/* For evicting prefetches, in nanoTime */
+		final long created = System.nanoTime();
+
+		Record(List<String> keys) {
+			this.keys = Collections.unmodifiableSet(new HashSet<String>(keys));
+		}
+	}
+}
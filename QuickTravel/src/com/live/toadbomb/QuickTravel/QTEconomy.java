@@ -0,0 +1,264 @@
+package com.live.toadbomb.QuickTravel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.milkbowl.vault.economy.Economy;
+import net.milkbowl.vault.economy.EconomyResponse;
+
+import org.bukkit.plugin.Plugin;
+
+/* Runs balance checks, withdrawals and deposits against an Economy on one
+ * background thread, so a slow economy plugin cannot hold up the server.
+ * Results are handed back on the main thread. If the economy has not
+ * answered within the timeout the callback gets a failed response instead,
+ * and should it answer later a withdrawal that went through is paid back.
+ * Deposits never time out, they are always made however late. Calls are
+ * made in order, one at a time. On shutdown every answer still on its way
+ * to the main thread is handed over there and then, and calls made after
+ * that run straight away on the calling thread. */
+public class QTEconomy {
+	/* errorMessage of the response given when the economy took too long */
+	public static final String TIMED_OUT = "The economy did not respond in time.";
+
+	private final Plugin plugin;
+	private final Economy economy;
+	private final long timeoutTicks;
+	private final ExecutorService worker;
+	/* Answered operations whose callback has not run yet */
+	private final Set<Operation> answered = Collections.newSetFromMap(new ConcurrentHashMap<Operation, Boolean>());
+	/* Set once shutdown has handed over every answer, later ones are too late */
+	private volatile boolean closed = false;
+
+	public interface Callback {
+		/* Called on the main thread, exactly once */
+		public void done(EconomyResponse response);
+	}
+
+	public interface BatchCallback {
+		/* Called on the main thread, exactly once, with one response per name in the same order */
+		public void done(EconomyResponse[] responses);
+	}
+
+	public QTEconomy(Plugin plugin, Economy economy, long timeoutMillis) {
+		this.plugin = plugin;
+		this.economy = economy;
+		this.timeoutTicks = Math.max(1, timeoutMillis / 50);
+		this.worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "QuickTravel Economy");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	public Economy getEconomy() {
+		return economy;
+	}
+
+	/* True if r is the response given when the economy took too long */
+	public static boolean timedOut(EconomyResponse r) {
+		return r instanceof TimedOut;
+	}
+
+	/* Lets queued calls finish, refunds in particular, then runs the callbacks
+	 * still waiting for the main thread. For onDisable, main thread only. */
+	public void shutdown() {
+		worker.shutdown();
+		try {
+			if(!worker.awaitTermination(5, TimeUnit.SECONDS)) {
+				QuickTravel.warning("Some economy calls did not finish in time.");
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		/* Scheduled deliveries will not run once the plugin is disabled */
+		for(Operation op : new ArrayList<Operation>(answered)) {
+			deliver(op);
+		}
+		closed = true;
+	}
+
+	/* Succeeds if name has at least amount */
+	public void has(final String name, final double amount, Callback callback) {
+		submit(new Operation(callback, true) {
+			EconomyResponse call() {
+				if(economy.has(name, amount)) {
+					return new EconomyResponse(amount, 0, EconomyResponse.ResponseType.SUCCESS, null);
+				}
+				return new EconomyResponse(amount, 0, EconomyResponse.ResponseType.FAILURE, null);
+			}
+		});
+	}
+
+	/* Takes amount from name's bank account if bank is set, otherwise from the player */
+	public void withdraw(final String name, final double amount, final boolean bank, Callback callback) {
+		submit(new Operation(callback, true) {
+			EconomyResponse call() {
+				return bank ? economy.bankWithdraw(name, amount) : economy.withdrawPlayer(name, amount);
+			}
+
+			void late(EconomyResponse r) {
+				if(r != null && r.transactionSuccess()) {
+					EconomyResponse back = bank ? economy.bankDeposit(name, amount) : economy.depositPlayer(name, amount);
+					if(back == null || !back.transactionSuccess()) {
+						QuickTravel.severe("Could not pay back " + amount + " to " + name + " after a timed out withdrawal: " + (back == null ? "no response" : back.errorMessage));
+					} else {
+						QuickTravel.warning("Paid back " + amount + " to " + name + " after a timed out withdrawal.");
+					}
+				}
+			}
+		});
+	}
+
+	/* Takes amounts[i] from each of names[i] in turn as a single call, for group travel.
+	 * Each withdrawal succeeds or fails on its own. On a timeout every response is
+	 * the timed out one, and any that went through are paid back. */
+	public void withdrawAll(final String[] names, final double[] amounts, final boolean bank, final BatchCallback callback) {
+		final EconomyResponse[] responses = new EconomyResponse[names.length];
+		submit(new Operation(new Callback() {
+			public void done(EconomyResponse r) {
+				if(timedOut(r)) {
+					EconomyResponse[] timedOut = new EconomyResponse[names.length];
+					Arrays.fill(timedOut, r);
+					callback.done(timedOut);
+				} else {
+					callback.done(responses);
+				}
+			}
+		}, true) {
+			EconomyResponse call() {
+				for(int i = 0; i < names.length; i++) {
+					try {
+						responses[i] = bank ? economy.bankWithdraw(names[i], amounts[i]) : economy.withdrawPlayer(names[i], amounts[i]);
+					} catch(RuntimeException e) {
+						QuickTravel.severe("Economy call failed: " + e);
+						responses[i] = new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, e.toString());
+					}
+				}
+				return new EconomyResponse(0, 0, EconomyResponse.ResponseType.SUCCESS, null);
+			}
+
+			void late(EconomyResponse r) {
+				for(int i = 0; i < names.length; i++) {
+					if(responses[i] != null && responses[i].transactionSuccess()) {
+						EconomyResponse back = bank ? economy.bankDeposit(names[i], amounts[i]) : economy.depositPlayer(names[i], amounts[i]);
+						if(back == null || !back.transactionSuccess()) {
+							QuickTravel.severe("Could not pay back " + amounts[i] + " to " + names[i] + " after a timed out withdrawal: " + (back == null ? "no response" : back.errorMessage));
+						} else {
+							QuickTravel.warning("Paid back " + amounts[i] + " to " + names[i] + " after a timed out withdrawal.");
+						}
+					}
+				}
+			}
+		});
+	}
+
+	/* Gives amount to name's bank account if bank is set, otherwise to the player */
+	public void deposit(final String name, final double amount, final boolean bank, Callback callback) {
+		submit(new Operation(callback, false) {
+			EconomyResponse call() {
+				return bank ? economy.bankDeposit(name, amount) : economy.depositPlayer(name, amount);
+			}
+		});
+	}
+
+	private void submit(final Operation op) {
+		if(worker.isShutdown()) {
+			/* Shutting down, e.g. a refund from a callback run by shutdown */
+			op.settled.set(true);
+			op.callback.done(call(op));
+			return;
+		}
+		if(op.timesOut == true) {
+			/* Whichever of the answer and the timeout gets here first settles the operation */
+			plugin.getServer().getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
+				public void run() {
+					if(op.settled.compareAndSet(false, true)) {
+						op.callback.done(new TimedOut());
+					}
+				}
+			}, timeoutTicks);
+		}
+		worker.execute(new Runnable() {
+			public void run() {
+				if(op.settled.get() == true) {
+					/* Timed out while queued, do not start it now */
+					return;
+				}
+				EconomyResponse r = call(op);
+				if(!op.settled.compareAndSet(false, true)) {
+					op.late(r);
+					return;
+				}
+				op.answer = r;
+				answered.add(op);
+				try {
+					plugin.getServer().getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
+						public void run() {
+							deliver(op);
+						}
+					});
+				} catch(RuntimeException e) {
+					/* Disabled meanwhile, shutdown hands it over */
+				}
+				if(closed == true && answered.remove(op)) {
+					/* Answered after shutdown gave up waiting, nobody is left to hand it to */
+					op.late(r);
+				}
+			}
+		});
+	}
+
+	/* Runs op's callback with its answer, unless that has already been done. Main thread only */
+	private void deliver(Operation op) {
+		if(answered.remove(op)) {
+			op.callback.done(op.answer);
+		}
+	}
+
+	private static EconomyResponse call(Operation op) {
+		try {
+			return op.call();
+		} catch(RuntimeException e) {
+			QuickTravel.severe("Economy call failed: " + e);
+			return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, e.toString());
+		}
+	}
+
+	/* The response given when the economy took too long, told apart by its class */
+	private static class TimedOut extends EconomyResponse {
+		TimedOut() {
+			super(0, 0, EconomyResponse.ResponseType.FAILURE, TIMED_OUT);
+		}
+	}
+
+	private static abstract class Operation {
+		final Callback callback;
+		final boolean timesOut;
+		final AtomicBoolean settled = new AtomicBoolean(false);
+		/* Set by the worker before the operation is added to answered */
+		volatile EconomyResponse answer;
+
+		Operation(Callback callback, boolean timesOut) {
+			this.callback = callback;
+			this.timesOut = timesOut;
+		}
+
+		/* Runs on the worker thread */
+		abstract EconomyResponse call();
+
+		/* The answer came after the timeout, runs on the worker thread */
+		void late(EconomyResponse r) {
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package com.live.toadbomb.QuickTravel;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.Event;
+import org.bukkit.event.HandlerList;
+
+/* Fired when a player walks into a QT */
+public class QTEnterEvent extends Event {
+	private static final HandlerList handlers = new HandlerList();
+	private final Player player;
+	private final String qt;
+
+	public QTEnterEvent(Player player, String qt) {
+		this.player = player;
+		this.qt = qt;
+	}
+
+	public Player getPlayer() {
+		return player;
+	}
+
+	/* Display name of the QT */
+	public String getQT() {
+		return qt;
+	}
+
+	public HandlerList getHandlers() {
+		return handlers;
+	}
+
+	public static HandlerList getHandlerList() {
+		return handlers;
+	}
+}
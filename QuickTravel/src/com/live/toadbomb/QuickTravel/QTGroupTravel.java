@@ -0,0 +1,552 @@
+package com.live.toadbomb.QuickTravel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.milkbowl.vault.economy.EconomyResponse;
+
+import org.bukkit.ChatColor;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Player;
+
+/* A QuickTravel of several players from the same QT at once, led by one of
+ * them. The leader first invites the players with them, and only those who
+ * accept with /qt group accept before the invite runs out come along.
+ * Then runs the same stages as QTTravel, but everything about the
+ * destination is done once for the whole group: one withdrawal call for all
+ * members, one chunk preload, one safety check and one burst of effects.
+ * Members arrive spread over the spaces around the destination. Before each
+ * stage every member is checked again as if they were travelling alone. A
+ * member who fails that, cannot pay or cannot be teleported drops out and
+ * gets their money back, the rest carry on. The whole group takes one place
+ * in the admission queue, and only the leader has to wait out a warmup.
+ * Main thread only. */
+public class QTGroupTravel implements QTAdmission.Ticket {
+	public static final int VALIDATE = 0;
+	public static final int INVITE = 1;
+	public static final int WARMUP = 2;
+	public static final int RESERVE = 3;
+	public static final int ADMIT = 4;
+	public static final int PRELOAD = 5;
+	public static final int SAFE = 6;
+	public static final int TELEPORT = 7;
+	public static final int EFFECTS = 8;
+	public static final int COMMIT = 9;
+	public static final int DONE = 10;
+	private static final String[] STAGES = { "validate", "invite", "warmup", "reserve", "admit", "preload", "make safe", "teleport", "effects", "commit" };
+
+	/* Spaces next to the destination members are spread over, as x and z offsets */
+	private static final int[][] SPREAD = { { 1, 0 }, { 0, 1 }, { -1, 0 }, { 0, -1 }, { 1, 1 }, { -1, 1 }, { -1, -1 }, { 1, -1 } };
+
+	/* What a stage asks for next */
+	private static final int NEXT = 0;
+	private static final int WAIT = 1;
+
+	private final QuickTravel plugin;
+	private final Player leader;
+	private final String requested;
+	/* Name and id of the QT the group travels from */
+	private final String current;
+	private final int fromId;
+	/* How long invites stay open, in ticks */
+	private final long inviteTicks;
+	/* Still travelling, the leader first */
+	private final List<Member> members = new ArrayList<Member>();
+	/* Invited and not answered yet */
+	private final List<Member> invited = new ArrayList<Member>();
+	private final QTTimingWheel.Timer inviteTimer = new QTTimingWheel.Timer() {
+		public void run() {
+			closeInvites();
+		}
+	};
+	private int stage = VALIDATE;
+	private QTInfo qt;
+	private World world;
+	private Location from;
+	private Location dest;
+	private boolean fromBank = false;
+
+	/* leader is charged price to travel from the QT named current to the one named requested */
+	public QTGroupTravel(QuickTravel plugin, Player leader, double price, String current, int fromId, String requested, long inviteTicks) {
+		this.plugin = plugin;
+		this.leader = leader;
+		this.current = current;
+		this.fromId = fromId;
+		this.requested = requested;
+		this.inviteTicks = Math.max(1, inviteTicks);
+		members.add(new Member(leader, plugin.getPlayerId(leader), price));
+	}
+
+	/* Adds p to those invited once the travel runs, to be charged price if they accept */
+	public void invite(Player p, double price) {
+		invited.add(new Member(p, plugin.getPlayerId(p), price));
+	}
+
+	/* p has typed /qt group accept. Returns false if they were not invited or it is too late */
+	public boolean accept(Player p) {
+		if(stage != INVITE) {
+			return false;
+		}
+		Member m = null;
+		for(Member i : invited) {
+			if(i.player == p) {
+				m = i;
+			}
+		}
+		if(m == null || !plugin.travelStarted(p, this)) {
+			return false;
+		}
+		invited.remove(m);
+		plugin.inviteClosed(m.id, this);
+		members.add(m);
+		p.sendMessage(ChatColor.BLUE + "You will QuickTravel to " + ChatColor.AQUA + requested + ChatColor.BLUE + " with " + ChatColor.AQUA + leader.getName() + ChatColor.BLUE + "'s group.");
+		if(leader.isOnline()) {
+			leader.sendMessage(ChatColor.AQUA + p.getName() + ChatColor.BLUE + " has joined your group.");
+		}
+		if(invited.isEmpty()) {
+			/* Everyone has answered, no need to wait */
+			plugin.getTimers().cancel(inviteTimer);
+			closeInvites();
+		}
+		return true;
+	}
+
+	public Player getLeader() {
+		return leader;
+	}
+
+	/* Current stage, DONE once finished either way */
+	public int getStage() {
+		return stage;
+	}
+
+	public Player getPlayer() {
+		return leader;
+	}
+
+	public Location getDestination() {
+		return dest;
+	}
+
+	public int getSize() {
+		return members.size();
+	}
+
+	/* Calls the travel off for everyone wherever it has got to, giving back anything reserved. For onDisable */
+	public void cancel(String message) {
+		if(stage < DONE) {
+			failAll(message);
+		}
+	}
+
+	/* Let through by QTAdmission */
+	public void admitted() {
+		if(stage != ADMIT) {
+			return;
+		}
+		stage++;
+		run();
+	}
+
+	/* Runs stages until one waits, everyone has dropped out or the travel is done */
+	public void run() {
+		while(stage < DONE) {
+			if(stage > VALIDATE && validate() == false) {
+				return;
+			}
+			int result;
+			try {
+				result = runStage();
+			} catch(RuntimeException e) {
+				QuickTravel.severe("Group QuickTravel led by " + leader.getName() + " failed at " + STAGES[stage] + ": " + e);
+				failAll("Something went wrong.");
+				return;
+			}
+			if(result != NEXT) {
+				return;
+			}
+			if(members.isEmpty()) {
+				/* Everyone has dropped out */
+				stage = DONE;
+				return;
+			}
+			stage++;
+		}
+	}
+
+	private int runStage() {
+		switch(stage) {
+		case VALIDATE:
+			return validate() ? NEXT : WAIT;
+		case INVITE:
+			return invite();
+		case WARMUP:
+			return warmup();
+		case RESERVE:
+			return reserve();
+		case ADMIT:
+			if(plugin.getAdmission() == null || plugin.getAdmission().enter(this)) {
+				return NEXT;
+			}
+			return WAIT;
+		case PRELOAD:
+			return preload();
+		case SAFE:
+			dest = plugin.checkSafe(dest, leader);
+			return NEXT;
+		case TELEPORT:
+			teleport();
+			return NEXT;
+		case EFFECTS:
+			try {
+				plugin.QTEffect(from, dest);
+			} catch(RuntimeException e) {
+				/* Only cosmetic, the group has already arrived */
+				QuickTravel.warning("Could not play QuickTravel effects: " + e);
+			}
+			return NEXT;
+		case COMMIT:
+			for(Member m : members) {
+				if(plugin.getRouteStats() != null) {
+					plugin.getRouteStats().record(fromId, qt.getId(), false, m.reserved);
+				}
+				if(plugin.getPreloader() != null) {
+					plugin.getPreloader().travelled(m.id, qt.getId());
+				}
+				if(plugin.getCooldowns() != null) {
+					plugin.getCooldowns().travelled(m.id, qt.getId());
+				}
+				m.reserved = 0;
+				plugin.travelFinished(m.player, this);
+			}
+			return NEXT;
+		}
+		return NEXT;
+	}
+
+	/* Drops members who have gone or could no longer make the trip alone, and checks the QT
+	 * is still there. Re-run before every stage after the first. Returns false if the travel is over. */
+	private boolean validate() {
+		if(stage > TELEPORT) {
+			/* Already arrived, nothing can undo that now */
+			return true;
+		}
+		for(Member m : new ArrayList<Member>(members)) {
+			if(!m.player.isOnline() || m.player.isDead()) {
+				drop(m, null);
+			}
+		}
+		if(members.isEmpty()) {
+			stage = DONE;
+			return false;
+		}
+		if(stage == TELEPORT) {
+			/* Checked just before making it safe, in the same tick */
+			return true;
+		}
+		qt = plugin.getRegistry().getSnapshot().getQT(requested);
+		if(qt == null || qt.isEnabled() == false) {
+			failAll(ChatColor.AQUA + requested + ChatColor.WHITE + " is no longer available.");
+			return false;
+		}
+		if(stage > VALIDATE) {
+			/* They may have walked off, lost a permission or started a cooldown while waiting */
+			for(Member m : new ArrayList<Member>(members)) {
+				if(!plugin.canGroupTravel(m.player, current, requested, qt.getId())) {
+					if(m.player == leader) {
+						failAll("The group's leader can no longer go there from here.");
+						return false;
+					}
+					drop(m, "You can no longer go there from here.");
+				}
+			}
+		}
+		world = plugin.getServer().getWorld(qt.getWorld());
+		if(world == null) {
+			failAll("The world " + ChatColor.AQUA + qt.getWorld() + ChatColor.WHITE + " is not loaded.");
+			return false;
+		}
+		if(stage <= SAFE) {
+			dest = new Location(world, qt.getDestX(), qt.getDestY(), qt.getDestZ(), qt.getDestYaw(), qt.getDestPitch());
+		}
+		return true;
+	}
+
+	/* Asks the invited players along, the group leaves once they have all answered or the invite runs out */
+	private int invite() {
+		long seconds = (inviteTicks + 19) / 20;
+		for(Member m : invited) {
+			plugin.inviteOpened(m.id, this);
+			String fare = "";
+			if(QuickTravel.economyEnabled == true && m.price > 0) {
+				fare = " for " + ChatColor.GOLD + EcoSetup.economy.format(m.price) + ChatColor.BLUE;
+			}
+			m.player.sendMessage(ChatColor.AQUA + leader.getName() + ChatColor.BLUE + " is taking a group to " + ChatColor.AQUA + requested + ChatColor.BLUE + fare + ". Type " + ChatColor.GOLD + "/qt group accept" + ChatColor.BLUE + " within " + ChatColor.GOLD + seconds + ChatColor.BLUE + " seconds to go with them.");
+		}
+		leader.sendMessage(ChatColor.BLUE + "Invited " + ChatColor.GOLD + invited.size() + ChatColor.BLUE + " players, leaving in " + ChatColor.GOLD + seconds + ChatColor.BLUE + " seconds or once they have all accepted.");
+		plugin.getTimers().schedule(inviteTimer, inviteTicks);
+		return WAIT;
+	}
+
+	/* Ends the invite, carrying on with those who accepted */
+	private void closeInvites() {
+		if(stage != INVITE) {
+			return;
+		}
+		for(Member m : invited) {
+			if(m.player.isOnline()) {
+				m.player.sendMessage("The invite to QuickTravel with " + ChatColor.AQUA + leader.getName() + ChatColor.WHITE + " has run out.");
+			}
+		}
+		forgetInvites();
+		if(members.size() <= 1) {
+			if(leader.isOnline()) {
+				leader.sendMessage("Nobody accepted, use " + ChatColor.GOLD + "/qt " + requested + ChatColor.WHITE + " to QuickTravel alone.");
+			}
+			failAll(null);
+			return;
+		}
+		stage++;
+		run();
+	}
+
+	/* Closes every invite not yet answered */
+	private void forgetInvites() {
+		for(Member m : invited) {
+			plugin.inviteClosed(m.id, this);
+		}
+		invited.clear();
+	}
+
+	/* Waits for the leader to stand still through the warmup, if there is one */
+	private int warmup() {
+		QTCooldowns cooldowns = plugin.getCooldowns();
+		if(cooldowns == null || !leader.isOnline() || !cooldowns.warmup(leader, plugin.getPlayerId(leader), new QTCooldowns.Warmup() {
+			public void done(String cancelled) {
+				if(stage != WARMUP) {
+					return;
+				}
+				if(cancelled != null) {
+					failAll(cancelled + " QuickTravel cancelled.");
+					return;
+				}
+				stage++;
+				run();
+			}
+		})) {
+			return NEXT;
+		}
+		for(Member m : members) {
+			m.player.sendMessage(ChatColor.BLUE + "QuickTravelling in " + ChatColor.GOLD + ((cooldowns.getWarmupTicks() + 19) / 20) + ChatColor.BLUE + " seconds, " + (m.player == leader ? "do not move..." : "wait for " + ChatColor.AQUA + leader.getName() + ChatColor.BLUE + "..."));
+		}
+		return WAIT;
+	}
+
+	/* Takes every member's fare in one go */
+	private int reserve() {
+		final List<Member> paying = new ArrayList<Member>();
+		for(Member m : members) {
+			if(QuickTravel.economyEnabled == true && m.price > 0) {
+				paying.add(m);
+			} else {
+				m.player.sendMessage(ChatColor.BLUE + "QuickTravelling to " + ChatColor.AQUA + qt.getName() + ChatColor.BLUE + " with " + ChatColor.AQUA + leader.getName() + ChatColor.BLUE + "'s group...");
+			}
+		}
+		if(paying.isEmpty()) {
+			return NEXT;
+		}
+		fromBank = EcoSetup.economy.hasBankSupport() && plugin.getConfig().getBoolean("withdraw-from-player-not-bank") == false;
+		QTEconomy eco = plugin.getAsyncEconomy();
+		if(eco == null) {
+			for(Member m : paying) {
+				if(fromBank == true) {
+					reserved(m, EcoSetup.economy.bankWithdraw(m.player.getName(), m.price));
+				} else {
+					reserved(m, EcoSetup.economy.withdrawPlayer(m.player.getName(), m.price));
+				}
+			}
+			return NEXT;
+		}
+		String[] names = new String[paying.size()];
+		double[] amounts = new double[paying.size()];
+		for(int i = 0; i < names.length; i++) {
+			names[i] = paying.get(i).player.getName();
+			amounts[i] = paying.get(i).price;
+		}
+		eco.withdrawAll(names, amounts, fromBank, new QTEconomy.BatchCallback() {
+			public void done(EconomyResponse[] r) {
+				for(int i = 0; i < r.length; i++) {
+					reserved(paying.get(i), r[i]);
+				}
+				if(members.isEmpty()) {
+					stage = DONE;
+					return;
+				}
+				stage++;
+				run();
+			}
+		});
+		return WAIT;
+	}
+
+	/* Handles the answer to one member's withdrawal, dropping them if it failed */
+	private void reserved(Member m, EconomyResponse r) {
+		if(r == null || !r.transactionSuccess()) {
+			audit(m, m.price, QTEconomy.timedOut(r) ? QTAuditLog.TIMED_OUT : QTAuditLog.DECLINED);
+			if(QTEconomy.timedOut(r)) {
+				drop(m, "The economy is not responding, please try again later.");
+			} else {
+				drop(m, "You do not have enough money to go there.");
+			}
+			return;
+		}
+		audit(m, m.price, QTAuditLog.CHARGED);
+		m.reserved = m.price;
+		m.player.sendMessage(ChatColor.BLUE + "QuickTravelling to " + ChatColor.AQUA + qt.getName() + ChatColor.BLUE + " with " + ChatColor.AQUA + leader.getName() + ChatColor.BLUE + "'s group for " + ChatColor.GOLD + EcoSetup.economy.format(m.price) + ChatColor.BLUE + "...");
+	}
+
+	/* Loads the chunks around the destination, then carries on next tick so the load and the teleport do not share a tick */
+	private int preload() {
+		boolean loaded = false;
+		int x = dest.getBlockX();
+		int z = dest.getBlockZ();
+		/* checkSafe and the spread look two blocks either side at most */
+		for(int cx = (x - 2) >> 4; cx <= (x + 2) >> 4; cx++) {
+			for(int cz = (z - 2) >> 4; cz <= (z + 2) >> 4; cz++) {
+				if(!world.isChunkLoaded(cx, cz)) {
+					world.loadChunk(cx, cz);
+					loaded = true;
+				}
+			}
+		}
+		if(loaded == false) {
+			return NEXT;
+		}
+		stage++;
+		plugin.getServer().getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
+			public void run() {
+				QTGroupTravel.this.run();
+			}
+		}, 1);
+		return WAIT;
+	}
+
+	/* Sends the leader to the destination and everyone else to the free spaces around it */
+	private void teleport() {
+		from = leader.isOnline() ? leader.getLocation() : members.get(0).player.getLocation();
+		List<Location> spots = spread();
+		int next = 0;
+		for(Member m : new ArrayList<Member>(members)) {
+			Location spot = dest;
+			if(m.player != leader && spots.size() > 0) {
+				spot = spots.get(next++ % spots.size());
+			}
+			if(!m.player.teleport(spot)) {
+				drop(m, "The teleport was cancelled.");
+			}
+		}
+	}
+
+	/* The spaces next to the (already safe) destination a player can stand in */
+	private List<Location> spread() {
+		List<Location> spots = new ArrayList<Location>();
+		for(int[] o : SPREAD) {
+			Location l = dest.clone().add(o[0], 0, o[1]);
+			Block feet = l.getBlock();
+			Block head = l.clone().add(0, 1, 0).getBlock();
+			Block floor = l.clone().add(0, -1, 0).getBlock();
+			if(feet.isEmpty() && head.isEmpty() && !floor.isEmpty() && !liquid(floor.getType())) {
+				spots.add(l);
+			}
+		}
+		return spots;
+	}
+
+	private static boolean liquid(Material m) {
+		return m == Material.WATER || m == Material.STATIONARY_WATER || m == Material.LAVA || m == Material.STATIONARY_LAVA;
+	}
+
+	/* Ends the travel for everyone left, giving back anything reserved */
+	private void failAll(String message) {
+		if(stage == INVITE) {
+			plugin.getTimers().cancel(inviteTimer);
+			forgetInvites();
+		}
+		for(Member m : new ArrayList<Member>(members)) {
+			drop(m, message);
+		}
+		stage = DONE;
+	}
+
+	/* Ends the travel for one member, giving back their fare. message (if any) is shown to them */
+	private void drop(Member m, String message) {
+		members.remove(m);
+		plugin.travelFinished(m.player, this);
+		if(stage > RESERVE && qt != null && plugin.getRouteStats() != null) {
+			/* Not counted before then, when it is down to the player (money, leaving) */
+			plugin.getRouteStats().record(fromId, qt.getId(), true, 0);
+		}
+		if(m.player.isOnline() && message != null) {
+			m.player.sendMessage("[" + ChatColor.RED + "Error" + ChatColor.WHITE + "] Could not QuickTravel: " + message);
+		}
+		refund(m);
+	}
+
+	/* Gives back whatever was reserved from m, the same way it was taken */
+	private void refund(final Member m) {
+		final double amount = m.reserved;
+		m.reserved = 0;
+		if(amount <= 0) {
+			return;
+		}
+		QTEconomy eco = plugin.getAsyncEconomy();
+		if(eco == null) {
+			EconomyResponse r;
+			if(fromBank == true) {
+				r = EcoSetup.economy.bankDeposit(m.player.getName(), amount);
+			} else {
+				r = EcoSetup.economy.depositPlayer(m.player.getName(), amount);
+			}
+			refunded(m, r, amount);
+			return;
+		}
+		eco.deposit(m.player.getName(), amount, fromBank, new QTEconomy.Callback() {
+			public void done(EconomyResponse r) {
+				refunded(m, r, amount);
+			}
+		});
+	}
+
+	private void refunded(Member m, EconomyResponse r, double amount) {
+		audit(m, amount, r != null && r.transactionSuccess() ? QTAuditLog.REFUNDED : QTAuditLog.REFUND_FAILED);
+		if(r == null || !r.transactionSuccess()) {
+			QuickTravel.severe("Could not refund " + amount + " to " + m.player.getName() + " after a failed QuickTravel: " + (r == null ? "no response" : r.errorMessage));
+		} else if(m.player.isOnline()) {
+			m.player.sendMessage("You have been refunded " + ChatColor.GOLD + EcoSetup.economy.format(amount) + ChatColor.WHITE + ".");
+		}
+	}
+
+	private void audit(Member m, double amount, int outcome) {
+		QTAuditLog log = plugin.getAuditLog();
+		if(log != null) {
+			log.record(m.id, fromId, qt == null ? -1 : qt.getId(), amount, fromBank, outcome);
+		}
+	}
+
+	private static class Member {
+		final Player player;
+		final int id;
+		final double price;
+		/* Amount taken by the reserve stage and not yet committed */
+		double reserved = 0;
+
+		Member(Player player, int id, double price) {
+			this.player = player;
+			this.id = id;
+			this.price = price;
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package com.live.toadbomb.QuickTravel;
+
+import java.util.Collections;
+import java.util.Map;
+
+/* Settings of a single QT as of one QTSnapshot, with every default from
+ * config.yml already applied. Never modified once published. */
+public final class QTInfo {
+	int id;
+	String key;
+	String name;
+	String world;
+	String type;
+	boolean enabled;
+	boolean free;
+	boolean freeSet;
+	boolean multiworld;
+	boolean requireDiscovery;
+	boolean requirePermissions;
+	boolean permissionsSet;
+	double radius;
+	int primaryX;
+	int primaryY;
+	int primaryZ;
+	boolean hasSecondary;
+	int secondaryX;
+	int secondaryY;
+	int secondaryZ;
+	double destX;
+	double destY;
+	double destZ;
+	float destYaw;
+	float destPitch;
+	double minX;
+	double minY;
+	double minZ;
+	double maxX;
+	double maxY;
+	double maxZ;
+	Map<String, Double> chargeFrom = Collections.emptyMap();
+
+	QTInfo() {
+	}
+
+	/* Stays the same for the QT while the server is running, never reused */
+	public int getId() {
+		return id;
+	}
+
+	/* Key under "locations" in locations.yml */
+	public String getKey() {
+		return key;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getWorld() {
+		return world;
+	}
+
+	/* "radius" or "cuboid", cuboids without a secondary corner are treated as radius */
+	public String getType() {
+		return type;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public boolean isFree() {
+		return free;
+	}
+
+	/* Whether 'free' is set for this QT rather than taken from free-by-default */
+	public boolean isFreeSet() {
+		return freeSet;
+	}
+
+	public boolean isMultiworld() {
+		return multiworld;
+	}
+
+	public boolean requiresDiscovery() {
+		return requireDiscovery;
+	}
+
+	public boolean requiresPermissions() {
+		return requirePermissions;
+	}
+
+	/* Whether 'require-permissions' is set for this QT rather than taken from the default */
+	public boolean isPermissionsSet() {
+		return permissionsSet;
+	}
+
+	public double getRadius() {
+		return radius;
+	}
+
+	/* Where players arrive, the primary corner if no destination has been set */
+	public double getDestX() {
+		return destX;
+	}
+
+	public double getDestY() {
+		return destY;
+	}
+
+	public double getDestZ() {
+		return destZ;
+	}
+
+	public float getDestYaw() {
+		return destYaw;
+	}
+
+	public float getDestPitch() {
+		return destPitch;
+	}
+
+	/* Bounds of the area players must stand in to use this QT */
+	public double getMinX() {
+		return minX;
+	}
+
+	public double getMinY() {
+		return minY;
+	}
+
+	public double getMinZ() {
+		return minZ;
+	}
+
+	public double getMaxX() {
+		return maxX;
+	}
+
+	public double getMaxY() {
+		return maxY;
+	}
+
+	public double getMaxZ() {
+		return maxZ;
+	}
+
+	/* Prices set with /qt price for travel to this QT, keyed by the key of the origin QT */
+	public Map<String, Double> getChargeFrom() {
+		return chargeFrom;
+	}
+
+	public boolean contains(String w, double x, double y, double z) {
+		return world.equals(w) && x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ;
+	}
+
+	/* Whether a QT has the same connections to other QTs, ignoring prices */
+	boolean sameReach(QTInfo o) {
+		return world.equals(o.world) && enabled == o.enabled && multiworld == o.multiworld;
+	}
+
+	boolean sameAs(QTInfo o) {
+		return sameReach(o) && key.equals(o.key) && name.equals(o.name) && type.equals(o.type)
+				&& free == o.free && freeSet == o.freeSet && requireDiscovery == o.requireDiscovery
+				&& requirePermissions == o.requirePermissions && permissionsSet == o.permissionsSet && radius == o.radius
+				&& primaryX == o.primaryX && primaryY == o.primaryY && primaryZ == o.primaryZ && hasSecondary == o.hasSecondary
+				&& secondaryX == o.secondaryX && secondaryY == o.secondaryY && secondaryZ == o.secondaryZ
+				&& destX == o.destX && destY == o.destY && destZ == o.destZ && destYaw == o.destYaw && destPitch == o.destPitch
+				&& minX == o.minX && minY == o.minY && minZ == o.minZ && maxX == o.maxX && maxY == o.maxY && maxZ == o.maxZ
+				&& chargeFrom.equals(o.chargeFrom);
+	}
+}
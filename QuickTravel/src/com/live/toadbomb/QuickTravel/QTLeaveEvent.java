@@ -0,0 +1,34 @@
+package com.live.toadbomb.QuickTravel;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.Event;
+import org.bukkit.event.HandlerList;
+
+/* Fired when a player leaves the QT they were standing in */
+public class QTLeaveEvent extends Event {
+	private static final HandlerList handlers = new HandlerList();
+	private final Player player;
+	private final String qt;
+
+	public QTLeaveEvent(Player player, String qt) {
+		this.player = player;
+		this.qt = qt;
+	}
+
+	public Player getPlayer() {
+		return player;
+	}
+
+	/* Display name of the QT */
+	public String getQT() {
+		return qt;
+	}
+
+	public HandlerList getHandlers() {
+		return handlers;
+	}
+
+	public static HandlerList getHandlerList() {
+		return handlers;
+	}
+}
@@ -0,0 +1,92 @@
+package com.live.toadbomb.QuickTravel;
+
+/* Measures how long recent server ticks took and decides how much optional
+ * work QuickTravel should skip. Runs every tick, so the time between runs
+ * is the tick time, 50ms on a healthy server and more when it falls behind.
+ * The load level goes up as soon as the average crosses a threshold and
+ * only comes back down once it has stayed lower for recover-ticks. */
+public class QTLoadMonitor implements Runnable {
+	public static final int NORMAL = 0;
+	/* Fewer move checks and effects */
+	public static final int REDUCED = 1;
+	/* As little as possible beyond travel itself */
+	public static final int MINIMAL = 2;
+
+	private static final int WINDOW = 40;
+
+	private final double reduceMspt;
+	private final double minimalMspt;
+	private final int recoverTicks;
+
+	private final long[] samples = new long[WINDOW];
+	private int sampleCount = 0;
+	private int nextSample = 0;
+	private long sampleTotal = 0;
+	private long lastRun = 0;
+
+	private volatile int level = NORMAL;
+	private int lowerFor = 0;
+
+	public QTLoadMonitor(double reduceMspt, double minimalMspt, int recoverTicks) {
+		this.reduceMspt = reduceMspt;
+		this.minimalMspt = minimalMspt;
+		this.recoverTicks = recoverTicks;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	/* Average tick time over the last few seconds, in milliseconds */
+	public double getMspt() {
+		if(sampleCount == 0) {
+			return 50;
+		}
+		return (double)sampleTotal / sampleCount / 1000000D;
+	}
+
+	public void run() {
+		long now = System.nanoTime();
+		if(lastRun != 0) {
+			sampleTotal -= samples[nextSample];
+			samples[nextSample] = now - lastRun;
+			sampleTotal += samples[nextSample];
+			nextSample = (nextSample + 1) % WINDOW;
+			if(sampleCount < WINDOW) {
+				sampleCount++;
+			}
+		}
+		lastRun = now;
+
+		double mspt = getMspt();
+		int target = NORMAL;
+		if(mspt >= minimalMspt) {
+			target = MINIMAL;
+		} else if(mspt >= reduceMspt) {
+			target = REDUCED;
+		}
+		if(target > level) {
+			setLevel(target, mspt);
+			lowerFor = 0;
+		} else if(target < level) {
+			lowerFor++;
+			if(lowerFor >= recoverTicks) {
+				setLevel(target, mspt);
+				lowerFor = 0;
+			}
+		} else {
+			lowerFor = 0;
+		}
+	}
+
+	private void setLevel(int target, double mspt) {
+		level = target;
+		if(target == NORMAL) {
+			QuickTravel.info("Server load has recovered (" + Math.round(mspt) + "ms per tick), back to normal.");
+		} else if(target == REDUCED) {
+			QuickTravel.info("Server is running slowly (" + Math.round(mspt) + "ms per tick), reducing optional work.");
+		} else {
+			QuickTravel.info("Server is overloaded (" + Math.round(mspt) + "ms per tick), skipping optional work.");
+		}
+	}
+}
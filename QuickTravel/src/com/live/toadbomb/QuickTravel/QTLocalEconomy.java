@@ -0,0 +1,150 @@
+package com.live.toadbomb.QuickTravel;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.milkbowl.vault.economy.Economy;
+import net.milkbowl.vault.economy.EconomyResponse;
+
+/* An Economy kept in memory, for trying QuickTravel out without an economy
+ * plugin. Every call waits latencyMillis first, to see how QuickTravel
+ * copes with a slow database backed economy. Balances are lost on restart.
+ * Banks are not supported. */
+public class QTLocalEconomy implements Economy {
+	private final Map<String, Double> balances = new ConcurrentHashMap<String, Double>();
+	private final double startingBalance;
+	private final long latencyMillis;
+
+	public QTLocalEconomy(double startingBalance, long latencyMillis) {
+		this.startingBalance = startingBalance;
+		this.latencyMillis = latencyMillis;
+	}
+
+	public boolean isEnabled() {
+		return true;
+	}
+
+	public String getName() {
+		return "QuickTravel local economy";
+	}
+
+	public boolean hasBankSupport() {
+		return false;
+	}
+
+	public String format(double amount) {
+		return new DecimalFormat("0.00").format(amount) + " " + (amount == 1 ? currencyNameSingular() : currencyNamePlural());
+	}
+
+	public String currencyNamePlural() {
+		return "coins";
+	}
+
+	public String currencyNameSingular() {
+		return "coin";
+	}
+
+	public boolean hasAccount(String name) {
+		return true;
+	}
+
+	public double getBalance(String name) {
+		delay();
+		return balance(name);
+	}
+
+	public boolean has(String name, double amount) {
+		delay();
+		return balance(name) >= amount;
+	}
+
+	public EconomyResponse withdrawPlayer(String name, double amount) {
+		delay();
+		if(amount < 0) {
+			return new EconomyResponse(0, balance(name), EconomyResponse.ResponseType.FAILURE, "Cannot withdraw a negative amount");
+		}
+		synchronized(balances) {
+			double balance = balance(name);
+			if(balance < amount) {
+				return new EconomyResponse(0, balance, EconomyResponse.ResponseType.FAILURE, "Insufficient funds");
+			}
+			balances.put(name.toLowerCase(), balance - amount);
+			return new EconomyResponse(amount, balance - amount, EconomyResponse.ResponseType.SUCCESS, null);
+		}
+	}
+
+	public EconomyResponse depositPlayer(String name, double amount) {
+		delay();
+		if(amount < 0) {
+			return new EconomyResponse(0, balance(name), EconomyResponse.ResponseType.FAILURE, "Cannot deposit a negative amount");
+		}
+		synchronized(balances) {
+			double balance = balance(name) + amount;
+			balances.put(name.toLowerCase(), balance);
+			return new EconomyResponse(amount, balance, EconomyResponse.ResponseType.SUCCESS, null);
+		}
+	}
+
+	public EconomyResponse createBank(String name, String player) {
+		return noBanks();
+	}
+
+	public EconomyResponse deleteBank(String name) {
+		return noBanks();
+	}
+
+	public EconomyResponse bankBalance(String name) {
+		return noBanks();
+	}
+
+	public EconomyResponse bankHas(String name, double amount) {
+		return noBanks();
+	}
+
+	public EconomyResponse bankWithdraw(String name, double amount) {
+		return noBanks();
+	}
+
+	public EconomyResponse bankDeposit(String name, double amount) {
+		return noBanks();
+	}
+
+	public EconomyResponse isBankOwner(String name, String player) {
+		return noBanks();
+	}
+
+	public EconomyResponse isBankMember(String name, String player) {
+		return noBanks();
+	}
+
+	public List<String> getBanks() {
+		return new ArrayList<String>();
+	}
+
+	public boolean createPlayerAccount(String name) {
+		return true;
+	}
+
+	private double balance(String name) {
+		Double balance = balances.get(name.toLowerCase());
+		return balance == null ? startingBalance : balance;
+	}
+
+	private void delay() {
+		if(latencyMillis <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(latencyMillis);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static EconomyResponse noBanks() {
+		return new EconomyResponse(0, 0, EconomyResponse.ResponseType.NOT_IMPLEMENTED, "QuickTravel's local economy does not support banks");
+	}
+}
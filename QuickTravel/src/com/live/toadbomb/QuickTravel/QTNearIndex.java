@@ -0,0 +1,312 @@
+package com.live.toadbomb.QuickTravel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/* A k-d tree per world over the QT destination points, for finding the
+ * QTs nearest to a position. New and moved QTs are inserted into the
+ * existing tree and removed ones are marked dead, a world's tree is only
+ * rebuilt once more of its nodes are dead than alive. Main thread only. */
+public class QTNearIndex {
+	private final QuickTravel plugin;
+	private QTSnapshot snapshot = null;
+	private final Map<String, Tree> trees = new HashMap<String, Tree>();
+	/* Live node of each QT, by id */
+	private final List<Node> nodes = new ArrayList<Node>();
+
+	public QTNearIndex(QuickTravel plugin) {
+		this.plugin = plugin;
+	}
+
+	/* Decides which QTs a query may return */
+	public interface Filter {
+		boolean accept(QTInfo qt);
+	}
+
+	/* Up to k accepted QTs in world, nearest to x, y, z first */
+	public List<QTInfo> nearest(String world, double x, double y, double z, int k, Filter filter) {
+		refresh();
+		Tree tree = trees.get(world);
+		if(tree == null || k <= 0) {
+			return new ArrayList<QTInfo>();
+		}
+		double[] q = {x, y, z};
+		PriorityQueue<Match> best = new PriorityQueue<Match>(Math.min(k, 64), FURTHEST_FIRST);
+		nearest(tree.root, q, k, filter, best);
+		return sorted(best);
+	}
+
+	/* Every accepted QT in world within distance of x, y, z, nearest first */
+	public List<QTInfo> within(String world, double x, double y, double z, double distance, Filter filter) {
+		refresh();
+		Tree tree = trees.get(world);
+		if(tree == null) {
+			return new ArrayList<QTInfo>();
+		}
+		double[] q = {x, y, z};
+		List<Match> found = new ArrayList<Match>();
+		within(tree.root, q, distance * distance, filter, found);
+		return sorted(found);
+	}
+
+	private void nearest(Node n, double[] q, int k, Filter filter, PriorityQueue<Match> best) {
+		if(n == null) {
+			return;
+		}
+		double d = n.distance(q);
+		if(n.dead == false && (filter == null || filter.accept(n.qt))) {
+			if(best.size() < k) {
+				best.add(new Match(n.qt, d));
+			} else if(d < best.peek().distance) {
+				best.poll();
+				best.add(new Match(n.qt, d));
+			}
+		}
+		double diff = q[n.axis] - n.point[n.axis];
+		Node near = diff < 0 ? n.left : n.right;
+		Node far = diff < 0 ? n.right : n.left;
+		nearest(near, q, k, filter, best);
+		if(best.size() < k || diff * diff < best.peek().distance) {
+			nearest(far, q, k, filter, best);
+		}
+	}
+
+	private void within(Node n, double[] q, double limit, Filter filter, List<Match> found) {
+		if(n == null) {
+			return;
+		}
+		double d = n.distance(q);
+		if(d <= limit && n.dead == false && (filter == null || filter.accept(n.qt))) {
+			found.add(new Match(n.qt, d));
+		}
+		double diff = q[n.axis] - n.point[n.axis];
+		within(diff < 0 ? n.left : n.right, q, limit, filter, found);
+		if(diff * diff <= limit) {
+			within(diff < 0 ? n.right : n.left, q, limit, filter, found);
+		}
+	}
+
+	private static List<QTInfo> sorted(Collection<Match> matches) {
+		List<Match> list = new ArrayList<Match>(matches);
+		Collections.sort(list, NEAREST_FIRST);
+		List<QTInfo> qts = new ArrayList<QTInfo>(list.size());
+		for(Match m : list) {
+			qts.add(m.qt);
+		}
+		return qts;
+	}
+
+	/* Picks up the latest snapshot, inserting new and moved QTs and killing removed ones */
+	private void refresh() {
+		QTSnapshot latest = plugin.getRegistry().getSnapshot();
+		if(latest == snapshot) {
+			return;
+		}
+		boolean first = snapshot == null;
+		snapshot = latest;
+		Set<Integer> seen = new HashSet<Integer>();
+		Set<String> rebuild = new HashSet<String>();
+		for(QTInfo qt : latest.getQTs()) {
+			seen.add(qt.getId());
+			while(nodes.size() <= qt.getId()) {
+				nodes.add(null);
+			}
+			Node old = nodes.get(qt.getId());
+			if(old != null && old.qt == qt) {
+				continue;
+			}
+			if(old != null && old.qt.getWorld().equals(qt.getWorld()) && old.at(qt)) {
+				/* Changed, but not moved */
+				old.qt = qt;
+				continue;
+			}
+			if(old != null) {
+				kill(old, rebuild);
+			}
+			Node n = new Node(qt);
+			nodes.set(qt.getId(), n);
+			Tree tree = tree(qt.getWorld());
+			if(first == true) {
+				/* Built in one go below */
+				tree.pending.add(n);
+			} else {
+				tree.insert(n);
+			}
+		}
+		for(int i = 0; i < nodes.size(); i++) {
+			Node n = nodes.get(i);
+			if(n != null && !seen.contains(i)) {
+				nodes.set(i, null);
+				kill(n, rebuild);
+			}
+		}
+		for(Tree tree : trees.values()) {
+			if(first == true || rebuild.contains(tree.world)) {
+				tree.rebuild();
+			}
+		}
+	}
+
+	private void kill(Node n, Set<String> rebuild) {
+		Tree tree = trees.get(n.qt.getWorld());
+		n.dead = true;
+		tree.dead++;
+		tree.live--;
+		if(tree.dead > tree.live) {
+			rebuild.add(tree.world);
+		}
+	}
+
+	private Tree tree(String world) {
+		Tree tree = trees.get(world);
+		if(tree == null) {
+			tree = new Tree(world);
+			trees.put(world, tree);
+		}
+		return tree;
+	}
+
+	private static class Tree {
+		final String world;
+		Node root = null;
+		int live = 0;
+		int dead = 0;
+		/* Nodes waiting for the first rebuild */
+		List<Node> pending = new ArrayList<Node>();
+
+		Tree(String world) {
+			this.world = world;
+		}
+
+		void insert(Node n) {
+			live++;
+			if(root == null) {
+				n.axis = 0;
+				root = n;
+				return;
+			}
+			Node at = root;
+			while(true) {
+				if(n.point[at.axis] < at.point[at.axis]) {
+					if(at.left == null) {
+						at.left = n;
+						break;
+					}
+					at = at.left;
+				} else {
+					if(at.right == null) {
+						at.right = n;
+						break;
+					}
+					at = at.right;
+				}
+			}
+			n.axis = (at.axis + 1) % 3;
+		}
+
+		/* Balanced rebuild from the live nodes */
+		void rebuild() {
+			List<Node> alive = pending;
+			collect(root, alive);
+			pending = new ArrayList<Node>();
+			for(Node n : alive) {
+				n.left = null;
+				n.right = null;
+			}
+			Node[] all = alive.toArray(new Node[alive.size()]);
+			root = build(all, 0, all.length, 0);
+			live = all.length;
+			dead = 0;
+		}
+
+		private void collect(Node n, List<Node> alive) {
+			if(n == null) {
+				return;
+			}
+			if(n.dead == false) {
+				alive.add(n);
+			}
+			collect(n.left, alive);
+			collect(n.right, alive);
+		}
+
+		private Node build(Node[] all, int from, int to, final int axis) {
+			if(from >= to) {
+				return null;
+			}
+			Arrays.sort(all, from, to, new Comparator<Node>() {
+				public int compare(Node a, Node b) {
+					return Double.compare(a.point[axis], b.point[axis]);
+				}
+			});
+			int mid = (from + to) / 2;
+			/* Equal coordinates must go right, as they do on insert */
+			while(mid > from && all[mid - 1].point[axis] == all[mid].point[axis]) {
+				mid--;
+			}
+			Node n = all[mid];
+			n.axis = axis;
+			n.left = build(all, from, mid, (axis + 1) % 3);
+			n.right = build(all, mid + 1, to, (axis + 1) % 3);
+			return n;
+		}
+	}
+
+	private static class Node {
+		QTInfo qt;
+		final double[] point;
+		int axis;
+		Node left;
+		Node right;
+		boolean dead = false;
+
+		Node(QTInfo qt) {
+			this.qt = qt;
+			this.point = new double[] {qt.getDestX(), qt.getDestY(), qt.getDestZ()};
+		}
+
+		boolean at(QTInfo other) {
+			return point[0] == other.getDestX() && point[1] == other.getDestY() && point[2] == other.getDestZ();
+		}
+
+		/* Squared distance to q */
+		double distance(double[] q) {
+			double dx = point[0] - q[0];
+			double dy = point[1] - q[1];
+			double dz = point[2] - q[2];
+			return dx * dx + dy * dy + dz * dz;
+		}
+	}
+
+	private static class Match {
+		final QTInfo qt;
+		/* Squared */
+		final double distance;
+
+		Match(QTInfo qt, double distance) {
+			this.qt = qt;
+			this.distance = distance;
+		}
+	}
+
+	private static final Comparator<Match> NEAREST_FIRST = new Comparator<Match>() {
+		public int compare(Match a, Match b) {
+			return Double.compare(a.distance, b.distance);
+		}
+	};
+
+	private static final Comparator<Match> FURTHEST_FIRST = new Comparator<Match>() {
+		public int compare(Match a, Match b) {
+			return Double.compare(b.distance, a.distance);
+		}
+	};
+}
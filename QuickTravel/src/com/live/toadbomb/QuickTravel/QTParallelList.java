@@ -0,0 +1,85 @@
+package com.live.toadbomb.QuickTravel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/* Works out where a player can go, and for how much, for large networks in
+ * parallel. Slices of the snapshot's QTs are evaluated on a thread pool and
+ * the results joined back together in list order. */
+public class QTParallelList {
+	/* Slices per thread, so one slow slice does not hold the rest up */
+	private static final int SLICES_PER_THREAD = 4;
+
+	private final ExecutorService pool;
+	private final int threads;
+
+	public QTParallelList(int threads) {
+		if(threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		this.threads = threads;
+		this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private int n = 0;
+
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "QuickTravel List " + (++n));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+
+	/* Splits the QTs into slices, evaluates them on the pool and joins the results in order */
+	public List<Destination> evaluate(final QTSnapshot snapshot, final QTTraveller traveller) throws Exception {
+		List<QTInfo> qts = snapshot.getQTs();
+		int slices = Math.max(1, Math.min(qts.size(), threads * SLICES_PER_THREAD));
+		int size = (qts.size() + slices - 1) / slices;
+		List<Future<List<Destination>>> futures = new ArrayList<Future<List<Destination>>>();
+		for(int start = 0; start < qts.size(); start += size) {
+			final int from = start;
+			final int to = Math.min(qts.size(), start + size);
+			futures.add(pool.submit(new Callable<List<Destination>>() {
+				public List<Destination> call() {
+					return evaluate(snapshot, traveller, from, to);
+				}
+			}));
+		}
+		List<Destination> destinations = new ArrayList<Destination>();
+		for(Future<List<Destination>> future : futures) {
+			destinations.addAll(future.get());
+		}
+		return destinations;
+	}
+
+	/* Evaluates the QTs from index 'from' up to 'to' on the calling thread */
+	public static List<Destination> evaluate(QTSnapshot snapshot, QTTraveller traveller, int from, int to) {
+		List<QTInfo> qts = snapshot.getQTs();
+		List<Destination> found = new ArrayList<Destination>();
+		for(int i = from; i < to; i++) {
+			QTInfo qt = qts.get(i);
+			if(traveller.canTravelTo(snapshot, qt)) {
+				found.add(new Destination(qt, traveller.listPrice(snapshot, qt)));
+			}
+		}
+		return found;
+	}
+
+	public static class Destination {
+		final QTInfo qt;
+		final double price;
+
+		Destination(QTInfo qt, double price) {
+			this.qt = qt;
+			this.price = price;
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package com.live.toadbomb.QuickTravel;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.entity.Player;
+import org.bukkit.permissions.Permission;
+import org.bukkit.permissions.PermissionDefault;
+import org.bukkit.plugin.PluginManager;
+
+/* The qt.use.<name> permission of every QT, registered once, and a cache
+ * of which of them each player has. A player's results are worked out the
+ * first time they are needed and then cost a bit test, until the player
+ * joins, changes world or their entry expires, or the QT is renamed.
+ * Main thread only. */
+public class QTPermissions {
+	private final QuickTravel plugin;
+	private final long ttl;
+	private QTSnapshot snapshot = null;
+	/* Permission of each QT by id, null where the QT no longer exists */
+	private final List<Permission> nodes = new ArrayList<Permission>();
+	private final List<QTInfo> qts = new ArrayList<QTInfo>();
+	/* Ids whose permission was registered here rather than by plugin.yml or another plugin */
+	private final BitSet added = new BitSet();
+	/* By player id */
+	private final Map<Integer, Entry> players = new HashMap<Integer, Entry>();
+
+	public QTPermissions(QuickTravel plugin, long ttlMillis) {
+		this.plugin = plugin;
+		this.ttl = ttlMillis * 1000000L;
+	}
+
+	/* Same rules as playerHasPermission */
+	public boolean hasPermission(Player p, QTInfo qt) {
+		if(qt.requiresPermissions() == false) {
+			return true;
+		}
+		refresh();
+		Entry e = entry(p);
+		if(e.has(p, qt.getId())) {
+			return true;
+		}
+		return qt.isPermissionsSet() == false && e.hasUseAll(p);
+	}
+
+	/* Whether p has qt.use.* */
+	public boolean hasUseAll(Player p) {
+		return entry(p).hasUseAll(p);
+	}
+
+	/* Ids of every QT needing permissions which p has qt.use.<name> for */
+	public BitSet getPermitted(Player p, QTSnapshot s) {
+		refresh();
+		Entry e = entry(p);
+		BitSet permitted = new BitSet();
+		for(QTInfo qt : s.getQTs()) {
+			if(qt.requiresPermissions() == true && e.has(p, qt.getId())) {
+				permitted.set(qt.getId());
+			}
+		}
+		return permitted;
+	}
+
+	/* Forget everything cached for p, their permissions may have changed */
+	public void invalidate(Player p) {
+		players.remove(plugin.getPlayerId(p));
+	}
+
+	public void invalidateAll() {
+		players.clear();
+	}
+
+	/* Removes the registered permissions, for onDisable */
+	public void unregister() {
+		PluginManager pm = plugin.getServer().getPluginManager();
+		for(int id = added.nextSetBit(0); id >= 0; id = added.nextSetBit(id + 1)) {
+			pm.removePermission(nodes.get(id));
+		}
+		added.clear();
+		nodes.clear();
+		qts.clear();
+		players.clear();
+		snapshot = null;
+	}
+
+	private Entry entry(Player p) {
+		int id = plugin.getPlayerId(p);
+		Entry e = players.get(id);
+		long now = System.nanoTime();
+		if(e == null || now - e.expires >= 0) {
+			e = new Entry(now + ttl);
+			players.put(id, e);
+		}
+		return e;
+	}
+
+	/* Registers permissions for new QTs and drops cached results for renamed or removed ones */
+	private void refresh() {
+		QTSnapshot latest = plugin.getRegistry().getSnapshot();
+		if(latest == snapshot) {
+			return;
+		}
+		snapshot = latest;
+		PluginManager pm = plugin.getServer().getPluginManager();
+		boolean[] seen = new boolean[nodes.size()];
+		for(QTInfo qt : latest.getQTs()) {
+			int id = qt.getId();
+			while(nodes.size() <= id) {
+				nodes.add(null);
+				qts.add(null);
+			}
+			if(id < seen.length) {
+				seen[id] = true;
+			}
+			QTInfo old = qts.get(id);
+			qts.set(id, qt);
+			if(nodes.get(id) == null) {
+				String name = "qt.use." + qt.getKey().toLowerCase();
+				Permission perm = pm.getPermission(name);
+				if(perm == null) {
+					/* Unregistered nodes default to op, keep it that way */
+					perm = new Permission(name, "Allows use of the QT " + qt.getName(), PermissionDefault.OP);
+					pm.addPermission(perm);
+					added.set(id);
+				}
+				nodes.set(id, perm);
+			} else if(old != null && !old.getName().equals(qt.getName())) {
+				forget(id);
+			}
+		}
+		for(int id = 0; id < seen.length; id++) {
+			if(seen[id] == false && nodes.get(id) != null) {
+				if(added.get(id)) {
+					pm.removePermission(nodes.get(id));
+					added.clear(id);
+				}
+				nodes.set(id, null);
+				qts.set(id, null);
+				forget(id);
+			}
+		}
+	}
+
+	private void forget(int id) {
+		for(Entry e : players.values()) {
+			e.checked.clear(id);
+		}
+	}
+
+	private class Entry {
+		final long expires;
+		final BitSet checked = new BitSet();
+		final BitSet granted = new BitSet();
+		/* 0 not checked yet, 1 no, 2 yes */
+		int useAll = 0;
+
+		Entry(long expires) {
+			this.expires = expires;
+		}
+
+		boolean has(Player p, int id) {
+			if(!checked.get(id)) {
+				Permission perm = id < nodes.size() ? nodes.get(id) : null;
+				granted.set(id, perm != null && p.hasPermission(perm));
+				checked.set(id);
+			}
+			return granted.get(id);
+		}
+
+		boolean hasUseAll(Player p) {
+			if(useAll == 0) {
+				useAll = p.hasPermission("qt.use.*") ? 2 : 1;
+			}
+			return useAll == 2;
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package com.live.toadbomb.QuickTravel;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+import org.bukkit.entity.Player;
+
+/* Gives every player a small int id, handed out in order and never reused,
+ * which everything QuickTravel keeps per player is keyed by. Players are
+ * known by UUID, with their last seen name kept so offline players can be
+ * looked up too. Stored in ids.txt, one "<id> <uuid> <name>" line per new
+ * player or name change, later lines win. Players only known by name, from
+ * old discovered-by lists, have "-" as their UUID until they next join.
+ * Safe to call from any thread, new lines are appended on the given executor. */
+public class QTPlayerIds {
+	private final File file;
+	private final Executor io;
+	private final Map<UUID, Integer> byUuid = new HashMap<UUID, Integer>();
+	/* By lower case name, the most recent player to use it */
+	private final Map<String, Integer> byName = new HashMap<String, Integer>();
+	private final List<UUID> uuids = new ArrayList<UUID>();
+	private final List<String> names = new ArrayList<String>();
+
+	public QTPlayerIds(File folder, Executor io) {
+		this.file = new File(folder, "ids.txt");
+		this.io = io;
+		if(!file.exists()) {
+			return;
+		}
+		try {
+			BufferedReader in = new BufferedReader(new FileReader(file));
+			try {
+				String line;
+				while((line = in.readLine()) != null) {
+					String[] parts = line.trim().split(" ");
+					if(parts.length == 3) {
+						set(Integer.parseInt(parts[0]), parts[1].equals("-") ? null : UUID.fromString(parts[1]), parts[2]);
+					} else if(parts.length == 1 && parts[0].length() > 0) {
+						/* Older files were just names, the id being the line number */
+						set(names.size(), null, parts[0]);
+					}
+				}
+			} finally {
+				in.close();
+			}
+		} catch(Exception e) {
+			QuickTravel.severe("Could not read " + file + ": " + e);
+		}
+	}
+
+	/* Id of the player with this name, or -1 if there is none */
+	public synchronized int get(String name) {
+		Integer id = byName.get(name.toLowerCase());
+		return id == null ? -1 : id;
+	}
+
+	/* Id of p, handing out a new one if needed and noting name changes */
+	public synchronized int intern(Player p) {
+		UUID uuid = p.getUniqueId();
+		String key = p.getName().toLowerCase();
+		Integer id = byUuid.get(uuid);
+		if(id != null) {
+			if(!names.get(id).equals(key)) {
+				record(id, uuid, key);
+			}
+			return id;
+		}
+		id = byName.get(key);
+		if(id == null || uuids.get(id) != null) {
+			/* New player, or someone new has taken the name */
+			id = names.size();
+		}
+		record(id, uuid, key);
+		return id;
+	}
+
+	/* Id of a player only known by name, for migrating name keyed data */
+	public synchronized int intern(String name) {
+		String key = name.toLowerCase();
+		Integer id = byName.get(key);
+		if(id != null) {
+			return id;
+		}
+		id = names.size();
+		record(id, null, key);
+		return id;
+	}
+
+	/* Last seen name of the player with this id, lower case */
+	public synchronized String getName(int id) {
+		return id >= 0 && id < names.size() ? names.get(id) : null;
+	}
+
+	/* UUID of the player with this id, null if they have not joined since it was handed out */
+	public synchronized UUID getUniqueId(int id) {
+		return id >= 0 && id < uuids.size() ? uuids.get(id) : null;
+	}
+
+	public synchronized int size() {
+		return names.size();
+	}
+
+	private void record(int id, UUID uuid, String key) {
+		set(id, uuid, key);
+		final String line = id + " " + (uuid == null ? "-" : uuid.toString()) + " " + key;
+		io.execute(new Runnable() {
+			public void run() {
+				append(line);
+			}
+		});
+	}
+
+	private void set(int id, UUID uuid, String key) {
+		while(names.size() <= id) {
+			names.add(null);
+			uuids.add(null);
+		}
+		String old = names.get(id);
+		Integer holder = old == null ? null : byName.get(old);
+		if(holder != null && holder == id && !old.equals(key)) {
+			byName.remove(old);
+		}
+		names.set(id, key);
+		byName.put(key, id);
+		if(uuid != null) {
+			uuids.set(id, uuid);
+			byUuid.put(uuid, id);
+		}
+	}
+
+	private void append(String line) {
+		try {
+			file.getParentFile().mkdirs();
+			Writer out = new FileWriter(file, true);
+			try {
+				out.write(line + "\n");
+			} finally {
+				out.close();
+			}
+		} catch(IOException e) {
+			QuickTravel.severe("Could not write " + file + ": " + e);
+		}
+	}
+}
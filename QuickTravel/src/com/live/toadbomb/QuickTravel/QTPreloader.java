@@ -0,0 +1,172 @@
+package com.live.toadbomb.QuickTravel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+
+/* Starts loading the chunks of the places a player is likely to travel to
+ * as soon as they walk into a QT, so /qt usually finds them loaded. The
+ * guesses are where the player last travelled to, then the busiest routes
+ * out of this QT, then the busiest destinations overall, up to a few per
+ * player. Chunks are loaded a few a tick across all players, only while the
+ * server is not overloaded, and a player's remaining loads are dropped when
+ * they leave the QT. Main thread only. */
+public class QTPreloader implements Listener, Runnable {
+	/* How long the route stats are reused for before asking again, in ms */
+	private static final long ROUTES_REUSE = 1000;
+
+	private final QuickTravel plugin;
+	private final int destinations;
+	private final int loadsPerTick;
+	/* Chunks still to load, by player id, in the order they entered */
+	private final Map<Integer, LinkedList<Pending>> queues = new LinkedHashMap<Integer, LinkedList<Pending>>();
+	/* Id of the QT each player last travelled to */
+	private final Map<Integer, Integer> lastDestination = new HashMap<Integer, Integer>();
+	private List<QTRouteStats.Route> routes = null;
+	private long routesTime = 0;
+
+	public QTPreloader(QuickTravel plugin, int destinations, int loadsPerTick) {
+		this.plugin = plugin;
+		this.destinations = Math.max(1, destinations);
+		this.loadsPerTick = Math.max(1, loadsPerTick);
+	}
+
+	/* Remembers where a player went, called when a travel completes */
+	public void travelled(int playerId, int qtId) {
+		lastDestination.put(playerId, qtId);
+	}
+
+	/* Players with loads still queued */
+	public int size() {
+		return queues.size();
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onQTEnter(QTEnterEvent event) {
+		Player p = event.getPlayer();
+		int id = plugin.getPlayerId(p);
+		QTSnapshot snapshot = plugin.getRegistry().getSnapshot();
+		QTInfo from = snapshot.getQT(event.getQT());
+		if(from == null) {
+			return;
+		}
+		LinkedList<Pending> queue = new LinkedList<Pending>();
+		int found = 0;
+		for(QTInfo qt : guess(snapshot, id, from)) {
+			if(found >= destinations) {
+				break;
+			}
+			if(qt.getId() == from.getId() || qt.isEnabled() == false || !plugin.playerHasPermission(p, qt.getName())) {
+				continue;
+			}
+			if(qt.requiresDiscovery() && !plugin.getDiscoveries().hasDiscovered(id, qt.getKey())) {
+				continue;
+			}
+			World w = plugin.getServer().getWorld(qt.getWorld());
+			if(w == null) {
+				continue;
+			}
+			int x = (int)Math.floor(qt.getDestX());
+			int z = (int)Math.floor(qt.getDestZ());
+			/* The same chunks QTTravel loads before teleporting */
+			for(int cx = (x - 1) >> 4; cx <= (x + 1) >> 4; cx++) {
+				for(int cz = (z - 1) >> 4; cz <= (z + 1) >> 4; cz++) {
+					if(!w.isChunkLoaded(cx, cz)) {
+						queue.add(new Pending(w.getName(), cx, cz));
+					}
+				}
+			}
+			found++;
+		}
+		queues.remove(id);
+		if(!queue.isEmpty()) {
+			queues.put(id, queue);
+		}
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onQTLeave(QTLeaveEvent event) {
+		/* Also fired on quit */
+		queues.remove(plugin.getPlayerId(event.getPlayer()));
+	}
+
+	/* Loads a few queued chunks each tick, one player at a time in turn, from a sync repeating task */
+	public void run() {
+		if(queues.isEmpty() || plugin.getLoadLevel() != QTLoadMonitor.NORMAL) {
+			return;
+		}
+		int loads = 0;
+		while(loads < loadsPerTick && !queues.isEmpty()) {
+			Iterator<LinkedList<Pending>> it = queues.values().iterator();
+			while(loads < loadsPerTick && it.hasNext()) {
+				LinkedList<Pending> queue = it.next();
+				Pending p = queue.removeFirst();
+				if(queue.isEmpty()) {
+					it.remove();
+				}
+				World w = plugin.getServer().getWorld(p.world);
+				if(w != null && !w.isChunkLoaded(p.x, p.z)) {
+					w.loadChunk(p.x, p.z);
+					loads++;
+				}
+			}
+		}
+	}
+
+	/* Likely destinations from this QT, most likely first. Gives a few more than
+	 * needed, as some may turn out to be off limits to the player. */
+	private List<QTInfo> guess(QTSnapshot snapshot, int playerId, QTInfo from) {
+		Map<Integer, QTInfo> byId = new HashMap<Integer, QTInfo>();
+		for(QTInfo qt : snapshot.getQTs()) {
+			byId.put(qt.getId(), qt);
+		}
+		int wanted = destinations * 4;
+		Map<Integer, QTInfo> guesses = new LinkedHashMap<Integer, QTInfo>();
+		Integer last = lastDestination.get(playerId);
+		if(last != null && byId.containsKey(last)) {
+			guesses.put(last, byId.get(last));
+		}
+		QTRouteStats stats = plugin.getRouteStats();
+		if(stats != null) {
+			long now = System.currentTimeMillis();
+			if(routes == null || now - routesTime > ROUTES_REUSE) {
+				routes = stats.getRoutes();
+				routesTime = now;
+			}
+			/* Routes come busiest first, those out of this QT then any */
+			for(int pass = 0; pass < 2; pass++) {
+				for(QTRouteStats.Route r : routes) {
+					if(guesses.size() >= wanted) {
+						break;
+					}
+					if((r.from == from.getId()) == (pass == 0) && byId.containsKey(r.to) && !guesses.containsKey(r.to)) {
+						guesses.put(r.to, byId.get(r.to));
+					}
+				}
+			}
+		}
+		return new ArrayList<QTInfo>(guesses.values());
+	}
+
+	private static class Pending {
+		final String world;
+		final int x;
+		final int z;
+
+		Pending(String world, int x, int z) {
+			this.world = world;
+			this.x = x;
+			this.z = z;
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package com.live.toadbomb.QuickTravel;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/* Prices the QT lists have shown each player, kept for a short while so
+ * travelling straight afterwards charges exactly what was shown without
+ * working it out again. Quotes only hold from where they were shown (the
+ * same QT, or the same small area when not at one, as prices may go by
+ * distance) and while the QTs are unchanged. Safe to use from any thread. */
+public class QTQuotes {
+	/* Width in blocks of the area a quote made away from a QT holds in */
+	private static final int CELL = 16;
+
+	private final long ttl;
+	/* By player id */
+	private final Map<Integer, Quotes> players = new ConcurrentHashMap<Integer, Quotes>();
+
+	public QTQuotes(long ttlMillis) {
+		this.ttl = ttlMillis * 1000000L;
+	}
+
+	/* Where a player is quoted from, the location key of their QT or the area of their world they are in when not at one */
+	public static String from(String qtKey, String world, double x, double z) {
+		if(qtKey != null) {
+			return qtKey;
+		}
+		return "world:" + world + ":" + (int)Math.floor(x / CELL) + ":" + (int)Math.floor(z / CELL);
+	}
+
+	/* Remembers prices (by location key) just shown to a player, along with any still valid from earlier pages */
+	public void offer(int playerId, String from, long version, Map<String, Double> prices) {
+		if(ttl <= 0 || prices.isEmpty()) {
+			return;
+		}
+		Map<String, Double> all = new HashMap<String, Double>();
+		Quotes old = players.get(playerId);
+		if(old != null && old.valid(from, version)) {
+			all.putAll(old.prices);
+		}
+		all.putAll(prices);
+		players.put(playerId, new Quotes(from, version, System.nanoTime() + ttl, all));
+	}
+
+	/* The price shown for travelling to qtKey, or null if there is no valid quote */
+	public Double get(int playerId, String from, long version, String qtKey) {
+		Quotes q = players.get(playerId);
+		if(q == null) {
+			return null;
+		}
+		if(!q.valid(from, version)) {
+			players.remove(playerId);
+			return null;
+		}
+		return q.prices.get(qtKey);
+	}
+
+	public void invalidate(int playerId) {
+		players.remove(playerId);
+	}
+
+	public void invalidateAll() {
+		players.clear();
+	}
+
+	/* Never changed once made */
+	private static class Quotes {
+		final String from;
+		final long version;
+		final long expires;
+		final Map<String, Double> prices;
+
+		Quotes(String from, long version, long expires, Map<String, Double> prices) {
+			this.from = from;
+			this.version = version;
+			this.expires = expires;
+			this.prices = prices;
+		}
+
+		boolean valid(String from, long version) {
+			return this.version == version && this.from.equals(from) && System.nanoTime() - expires < 0;
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package com.live.toadbomb.QuickTravel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.FileConfiguration;
+
+/* Builds QTSnapshots from locations.yml and config.yml.
+ * update() must run on the main thread after every change to either, it
+ * publishes the new snapshot with a single volatile write. QTs that did
+ * not change are shared with the old snapshot. Discoveries are kept by
+ * QTDiscoveries instead, as they change far more often. */
+public class QTRegistry implements QuickTravelService {
+	private final QuickTravel plugin;
+	private volatile QTSnapshot snapshot = null;
+	private final Map<String, Integer> ids = new HashMap<String, Integer>();
+	private int nextId = 0;
+	private long version = 0;
+
+	public QTRegistry(QuickTravel plugin) {
+		this.plugin = plugin;
+	}
+
+	public Set<String> getDiscovered(String player) {
+		return plugin.getDiscoveries().getDiscovered(player);
+	}
+
+	public QTSnapshot getSnapshot() {
+		QTSnapshot s = snapshot;
+		if(s == null) {
+			/* Only reachable from the main thread before the first update */
+			s = update();
+		}
+		return s;
+	}
+
+	@SuppressWarnings("unchecked")
+	public synchronized QTSnapshot update() {
+		QTSnapshot old = snapshot;
+		FileConfiguration cfg = plugin.getConfig();
+		QTSnapshot.Settings settings = new QTSnapshot.Settings();
+		settings.economyEnabled = QuickTravel.economyEnabled;
+		settings.chargeFromQTs = (cfg.getBoolean("qt-from-anywhere") == true && cfg.getBoolean("free-from-qts") == false) || (cfg.getBoolean("qt-from-anywhere") == false && cfg.getBoolean("free-by-default") == false);
+		settings.freeByDefault = cfg.getBoolean("free-by-default");
+		settings.requireDiscoveryByDefault = cfg.getBoolean("require-discovery-by-default");
+		settings.multiworldByDefault = cfg.getBoolean("multiworld-by-default");
+		settings.multiworldTax = cfg.getDouble("multiworld-tax");
+		settings.priceMultiplier = cfg.getDouble("price-multiplier");
+		settings.multiworldMultiplier = cfg.getDouble("multiworld-multiplier");
+		if(old != null && old.getSettings().sameAs(settings)) {
+			/* Lets consumers spot a settings change by identity */
+			settings = old.getSettings();
+		}
+
+		List<QTInfo> qts = new ArrayList<QTInfo>();
+		Map<String, QTInfo> byKey = new HashMap<String, QTInfo>();
+		Map<String, QTInfo> byName = new HashMap<String, QTInfo>();
+		List<Object> locList = (List<Object>) plugin.getLocations().getList("list");
+		if(locList != null) {
+			ListIterator<Object> li = locList.listIterator();
+			while(li.hasNext()) {
+				String v = li.next().toString();
+				ConfigurationSection loc = plugin.getLocations().getConfigurationSection("locations." + v);
+				if(loc == null || loc.getString("world") == null || loc.getString("name") == null) {
+					continue;
+				}
+				QTInfo qt = readQT(v, loc, cfg);
+				if(old != null && old.getQTByKey(v) != null && old.getQTByKey(v).sameAs(qt)) {
+					qt = old.getQTByKey(v);
+				}
+				qts.add(qt);
+				byKey.put(v, qt);
+				byName.put(qt.getName().toLowerCase(), qt);
+			}
+		}
+		version++;
+		snapshot = new QTSnapshot(version, qts, byKey, byName, settings);
+		return snapshot;
+	}
+
+	private QTInfo readQT(String v, ConfigurationSection loc, FileConfiguration cfg) {
+		QTInfo qt = new QTInfo();
+		Integer id = ids.get(v);
+		if(id == null) {
+			id = nextId++;
+			ids.put(v, id);
+		}
+		qt.id = id;
+		qt.key = v;
+		qt.name = loc.getString("name");
+		qt.world = loc.getString("world");
+		qt.enabled = (loc.get("enabled") == null && cfg.getBoolean("enabled-by-default") == true) || loc.getBoolean("enabled") == true;
+		qt.freeSet = loc.get("free") != null;
+		if(qt.freeSet == true) {
+			qt.free = loc.getBoolean("free");
+		} else {
+			qt.free = cfg.getBoolean("free-by-default");
+		}
+		if(loc.get("multiworld") != null) {
+			qt.multiworld = loc.getBoolean("multiworld");
+		} else {
+			qt.multiworld = cfg.getBoolean("multiworld-by-default");
+		}
+		if(loc.get("require-discovery") != null) {
+			qt.requireDiscovery = loc.getBoolean("require-discovery");
+		} else {
+			qt.requireDiscovery = cfg.getBoolean("require-discovery-by-default");
+		}
+		qt.permissionsSet = loc.get("require-permissions") != null;
+		if(qt.permissionsSet == true) {
+			qt.requirePermissions = loc.getBoolean("require-permissions");
+		} else {
+			qt.requirePermissions = cfg.getBoolean("require-permissions-by-default");
+		}
+		qt.radius = cfg.getDouble("radius");
+		if(loc.get("radius") != null) {
+			qt.radius = loc.getDouble("radius");
+		}
+		qt.primaryX = loc.getInt("coords.primary.x");
+		qt.primaryY = loc.getInt("coords.primary.y");
+		qt.primaryZ = loc.getInt("coords.primary.z");
+		qt.hasSecondary = loc.get("coords.secondary") != null;
+		if(qt.hasSecondary == true) {
+			qt.secondaryX = loc.getInt("coords.secondary.x");
+			qt.secondaryY = loc.getInt("coords.secondary.y");
+			qt.secondaryZ = loc.getInt("coords.secondary.z");
+		}
+		if(loc.get("coords.dest") != null) {
+			qt.destX = loc.getDouble("coords.dest.x");
+			qt.destY = loc.getDouble("coords.dest.y");
+			qt.destZ = loc.getDouble("coords.dest.z");
+			qt.destYaw = (float) loc.getDouble("coords.dest.yaw");
+			qt.destPitch = (float) loc.getDouble("coords.dest.pitch");
+		} else {
+			qt.destX = qt.primaryX;
+			qt.destY = qt.primaryY;
+			qt.destZ = qt.primaryZ;
+		}
+		/* Same shape rules as checkPlayerQT */
+		int yMod = cfg.getInt("height-modifier");
+		if(qt.hasSecondary == false || (loc.get("type") != null && loc.getString("type").equals("radius"))) {
+			qt.type = "radius";
+			qt.minX = qt.primaryX - qt.radius;
+			qt.maxX = qt.primaryX + qt.radius;
+			qt.minY = qt.primaryY - yMod;
+			qt.maxY = qt.primaryY + yMod;
+			qt.minZ = qt.primaryZ - qt.radius;
+			qt.maxZ = qt.primaryZ + qt.radius;
+		} else {
+			qt.type = "cuboid";
+			qt.minX = Math.min(qt.primaryX, qt.secondaryX);
+			qt.maxX = Math.max(qt.primaryX, qt.secondaryX);
+			qt.minY = Math.min(qt.primaryY, qt.secondaryY) - yMod;
+			qt.maxY = Math.max(qt.primaryY, qt.secondaryY) + yMod;
+			qt.minZ = Math.min(qt.primaryZ, qt.secondaryZ);
+			qt.maxZ = Math.max(qt.primaryZ, qt.secondaryZ);
+		}
+		ConfigurationSection charges = loc.getConfigurationSection("charge-from");
+		if(charges != null) {
+			Map<String, Double> chargeFrom = new HashMap<String, Double>();
+			for(String from : charges.getKeys(false)) {
+				chargeFrom.put(from, charges.getDouble(from));
+			}
+			qt.chargeFrom = Collections.unmodifiableMap(chargeFrom);
+		}
+		return qt;
+	}
+}
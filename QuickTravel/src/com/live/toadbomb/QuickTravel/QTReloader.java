@@ -0,0 +1,149 @@
+package com.live.toadbomb.QuickTravel;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+/* Reloads locations.yml and config.yml without restarting.
+ * Both files are parsed on a background thread and only swapped in on the
+ * main thread, after which the registry works out which QTs changed and
+ * everything built from it picks up just those changes. If QuickTravel
+ * saves the files itself while they are being parsed, say for a /qt admin
+ * edit, the parse is thrown away and done again so that edit is kept.
+ * When run as a repeating task it polls the files and reloads them when
+ * edited. */
+public class QTReloader implements Runnable {
+	private final QuickTravel plugin;
+	private final File locationsFile;
+	private final File configFile;
+	private final AtomicBoolean reloading = new AtomicBoolean(false);
+	/* When each file was last read or written by QuickTravel */
+	private volatile long locationsStamp;
+	private volatile long configStamp;
+	/* Bumped on every save, to tell whether one happened during a parse */
+	private final AtomicLong saves = new AtomicLong();
+
+	public QTReloader(QuickTravel plugin) {
+		this.plugin = plugin;
+		this.locationsFile = new File(plugin.getDataFolder(), "locations.yml");
+		this.configFile = new File(plugin.getDataFolder(), "config.yml");
+		markSaved();
+	}
+
+	/* Called after QuickTravel writes the files itself, so the watcher does not reload them */
+	public void markSaved() {
+		locationsStamp = locationsFile.lastModified();
+		configStamp = configFile.lastModified();
+		saves.incrementAndGet();
+	}
+
+	/* File watcher, polls for edits from an async repeating task */
+	public void run() {
+		if(locationsFile.lastModified() != locationsStamp || configFile.lastModified() != configStamp) {
+			reload(null);
+		}
+	}
+
+	/* Reloads both files, sender (if any) is told how it went. Safe to call from any thread */
+	public void reload(final CommandSender sender) {
+		if(!reloading.compareAndSet(false, true)) {
+			if(sender != null) {
+				sender.sendMessage("[" + ChatColor.RED + "Error" + ChatColor.WHITE + "] QuickTravel is already reloading.");
+			}
+			return;
+		}
+		plugin.getServer().getScheduler().scheduleAsyncDelayedTask(plugin, new Runnable() {
+			public void run() {
+				final long saved = saves.get();
+				final long ls = locationsFile.lastModified();
+				final long cs = configFile.lastModified();
+				final YamlConfiguration locations = new YamlConfiguration();
+				final YamlConfiguration config = new YamlConfiguration();
+				try {
+					if(locationsFile.exists()) {
+						locations.load(locationsFile);
+					}
+					config.load(configFile);
+				} catch(Exception e) {
+					/* Keep what we have rather than losing every QT to a typo */
+					locationsStamp = ls;
+					configStamp = cs;
+					reloading.set(false);
+					report(sender, "[" + ChatColor.RED + "Error" + ChatColor.WHITE + "] Could not reload QuickTravel: " + e.getMessage());
+					return;
+				}
+				plugin.getServer().getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
+					public void run() {
+						if(saves.get() != saved) {
+							/* What was parsed is older than what QuickTravel has since saved */
+							reloading.set(false);
+							reload(sender);
+							return;
+						}
+						try {
+							QTSnapshot before = plugin.getRegistry().getSnapshot();
+							List<String> restart = plugin.applyReload(locations, config);
+							QTSnapshot after = plugin.getRegistry().getSnapshot();
+							report(sender, "QuickTravel reloaded, " + describe(before, after) + ".");
+							if(!restart.isEmpty()) {
+								report(sender, ChatColor.BLUE + "Restart the server for changes to " + ChatColor.AQUA + join(restart) + ChatColor.BLUE + " to take effect.");
+							}
+						} finally {
+							locationsStamp = ls;
+							configStamp = cs;
+							reloading.set(false);
+						}
+					}
+				});
+			}
+		});
+	}
+
+	private void report(final CommandSender sender, final String message) {
+		if(sender == null) {
+			QuickTravel.info(ChatColor.stripColor(message));
+			return;
+		}
+		plugin.getServer().getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
+			public void run() {
+				sender.sendMessage(message);
+			}
+		});
+	}
+
+	private static String join(List<String> keys) {
+		StringBuilder s = new StringBuilder();
+		for(String key : keys) {
+			if(s.length() > 0) {
+				s.append(", ");
+			}
+			s.append(key);
+		}
+		return s.toString();
+	}
+
+	/* "x added, y changed, z removed" between two snapshots */
+	private static String describe(QTSnapshot before, QTSnapshot after) {
+		int added = 0;
+		int changed = 0;
+		int kept = 0;
+		for(QTInfo qt : after.getQTs()) {
+			QTInfo old = before.getQTByKey(qt.getKey());
+			if(old == null) {
+				added++;
+			} else if(old != qt) {
+				changed++;
+				kept++;
+			} else {
+				kept++;
+			}
+		}
+		int removed = before.getQTs().size() - kept;
+		return added + " added, " + changed + " changed, " + removed + " removed";
+	}
+}
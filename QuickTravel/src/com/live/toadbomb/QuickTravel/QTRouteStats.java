@@ -0,0 +1,432 @@
+package com.live.toadbomb.QuickTravel;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+
+/* Trips, revenue and failures for each (from, to) pair of QTs, for all time
+ * and for each of the last few hours. Each count lives in a small open
+ * addressing table of primitive arrays keyed by the two QT ids, so only
+ * routes actually used take any room. Saved to route-stats.dat by location
+ * key, as QT ids are only fixed while the server runs. Main thread only,
+ * except where noted. */
+public class QTRouteStats {
+	private static final long HOUR = 3600000L;
+	private static final int FORMAT = 1;
+
+	private final QuickTravel plugin;
+	private final File file;
+	private final Table total = new Table();
+	/* One table per hour, hours[h % hours.length] covering hour h */
+	private final Table[] hours;
+	private long hour;
+
+	public QTRouteStats(QuickTravel plugin, int hourCount) {
+		this.plugin = plugin;
+		this.file = new File(plugin.getDataFolder(), "route-stats.dat");
+		this.hours = new Table[Math.max(1, hourCount)];
+		for(int i = 0; i < hours.length; i++) {
+			hours[i] = new Table();
+		}
+		this.hour = System.currentTimeMillis() / HOUR;
+	}
+
+	public int getHours() {
+		return hours.length;
+	}
+
+	/* A trip from QT id from (-1 when not at a QT) to QT id to, failed or not, earning revenue */
+	public void record(int from, int to, boolean failed, double revenue) {
+		roll();
+		long key = key(from, to);
+		total.add(key, failed ? 0 : 1, failed ? 1 : 0, revenue);
+		hours[(int)(hour % hours.length)].add(key, failed ? 0 : 1, failed ? 1 : 0, revenue);
+	}
+
+	/* Every route with its totals, and its trips over the last hours kept, busiest recently first */
+	public List<Route> getRoutes() {
+		roll();
+		Table recent = new Table();
+		for(Table t : hours) {
+			t.addTo(recent);
+		}
+		List<Route> routes = new ArrayList<Route>();
+		for(int i = 0; i < total.keys.length; i++) {
+			long key = total.keys[i];
+			if(key == Table.EMPTY) {
+				continue;
+			}
+			int r = recent.find(key);
+			routes.add(new Route((int)(key >> 32) - 1, (int)key, total.trips[i], total.failures[i], total.revenue[i], r < 0 ? 0 : recent.trips[r]));
+		}
+		Collections.sort(routes, new Comparator<Route>() {
+			public int compare(Route a, Route b) {
+				if(a.recentTrips != b.recentTrips) {
+					return a.recentTrips > b.recentTrips ? -1 : 1;
+				}
+				return a.trips == b.trips ? 0 : (a.trips > b.trips ? -1 : 1);
+			}
+		});
+		return routes;
+	}
+
+	/* Writes route-stats.dat, in the background unless now is set */
+	public void save(boolean now) {
+		roll();
+		final byte[] data;
+		try {
+			QTSnapshot s = plugin.getRegistry().getSnapshot();
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(FORMAT);
+			out.writeLong(hour);
+			out.writeInt(hours.length);
+			total.write(out, s);
+			for(int i = 0; i < hours.length; i++) {
+				hours[i].write(out, s);
+			}
+			out.flush();
+			data = bytes.toByteArray();
+		} catch(IOException e) {
+			QuickTravel.severe("Could not save route stats: " + e);
+			return;
+		}
+		Runnable write = new Runnable() {
+			public void run() {
+				try {
+					File tmp = new File(file.getPath() + ".tmp");
+					FileOutputStream out = new FileOutputStream(tmp);
+					try {
+						out.write(data);
+					} finally {
+						out.close();
+					}
+					if(!tmp.renameTo(file)) {
+						file.delete();
+						tmp.renameTo(file);
+					}
+				} catch(IOException e) {
+					QuickTravel.severe("Could not save " + file + ": " + e);
+				}
+			}
+		};
+		if(now == true) {
+			write.run();
+		} else {
+			plugin.getServer().getScheduler().scheduleAsyncDelayedTask(plugin, write);
+		}
+	}
+
+	/* Reads route-stats.dat, dropping routes to or from QTs that no longer exist */
+	public void load() {
+		if(!file.exists()) {
+			return;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if(in.readInt() != FORMAT) {
+					QuickTravel.warning("Ignoring " + file + ", it is from a different version.");
+					return;
+				}
+				QTSnapshot s = plugin.getRegistry().getSnapshot();
+				long savedHour = in.readLong();
+				int savedHours = in.readInt();
+				total.read(in, s);
+				for(int i = 0; i < savedHours; i++) {
+					Table t = new Table();
+					t.read(in, s);
+					/* Slot i held hour h where h % savedHours == i, find h and keep it if still recent */
+					long h = savedHour - ((savedHour - i) % savedHours + savedHours) % savedHours;
+					if(hour - h < hours.length && h <= hour) {
+						t.addTo(hours[(int)(h % hours.length)]);
+					}
+				}
+			} finally {
+				in.close();
+			}
+		} catch(IOException e) {
+			QuickTravel.severe("Could not read " + file + ": " + e);
+		}
+	}
+
+	/* Writes every route to stats/routes-<date>.csv or .json in the background, telling sender where */
+	public void export(final CommandSender sender, final boolean json) {
+		List<Route> routes = getRoutes();
+		String[] names = names(plugin.getRegistry().getSnapshot());
+		StringBuilder b = new StringBuilder();
+		if(json == true) {
+			b.append("{\"hours\":").append(hours.length).append(",\"routes\":[");
+		} else {
+			b.append("from,to,trips,failures,revenue,trips_last_").append(hours.length).append("h\n");
+		}
+		for(int i = 0; i < routes.size(); i++) {
+			Route r = routes.get(i);
+			String from = name(names, r.from);
+			String to = name(names, r.to);
+			if(json == true) {
+				b.append(i > 0 ? "," : "").append("{\"from\":").append(from == null ? "null" : jsonString(from));
+				b.append(",\"to\":").append(jsonString(to)).append(",\"trips\":").append(r.trips);
+				b.append(",\"failures\":").append(r.failures).append(",\"revenue\":").append(r.revenue);
+				b.append(",\"recentTrips\":").append(r.recentTrips).append("}");
+			} else {
+				b.append(from == null ? "" : csvField(from)).append(',').append(csvField(to)).append(',');
+				b.append(r.trips).append(',').append(r.failures).append(',').append(r.revenue).append(',').append(r.recentTrips).append('\n');
+			}
+		}
+		if(json == true) {
+			b.append("]}\n");
+		}
+		final String data = b.toString();
+		final File out = new File(new File(plugin.getDataFolder(), "stats"), "routes-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + (json ? ".json" : ".csv"));
+		plugin.getServer().getScheduler().scheduleAsyncDelayedTask(plugin, new Runnable() {
+			public void run() {
+				String message;
+				try {
+					out.getParentFile().mkdirs();
+					Writer w = new OutputStreamWriter(new FileOutputStream(out), "UTF-8");
+					try {
+						w.write(data);
+					} finally {
+						w.close();
+					}
+					message = "Route stats exported to " + ChatColor.AQUA + out.getPath() + ChatColor.WHITE + ".";
+				} catch(IOException e) {
+					message = "[" + ChatColor.RED + "Error" + ChatColor.WHITE + "] Could not export route stats: " + e.getMessage();
+				}
+				final String m = message;
+				plugin.getServer().getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
+					public void run() {
+						sender.sendMessage(m);
+					}
+				});
+			}
+		});
+	}
+
+	/* Names of the QTs in s, by id */
+	public static String[] names(QTSnapshot s) {
+		String[] names = new String[0];
+		for(QTInfo qt : s.getQTs()) {
+			if(qt.getId() >= names.length) {
+				names = Arrays.copyOf(names, Math.max(qt.getId() + 1, names.length * 2));
+			}
+			names[qt.getId()] = qt.getName();
+		}
+		return names;
+	}
+
+	/* Name of the QT with this id from names(), null for -1 (outside any QT) */
+	public static String name(String[] names, int id) {
+		if(id < 0) {
+			return null;
+		}
+		return id < names.length && names[id] != null ? names[id] : "#" + id;
+	}
+
+	private static String jsonString(String v) {
+		StringBuilder b = new StringBuilder("\"");
+		for(int i = 0; i < v.length(); i++) {
+			char c = v.charAt(i);
+			if(c == '"' || c == '\\') {
+				b.append('\\').append(c);
+			} else if(c < 0x20) {
+				b.append(String.format("\\u%04x", (int)c));
+			} else {
+				b.append(c);
+			}
+		}
+		return b.append('"').toString();
+	}
+
+	private static String csvField(String v) {
+		if(v.indexOf(',') < 0 && v.indexOf('"') < 0 && v.indexOf('\n') < 0) {
+			return v;
+		}
+		return "\"" + v.replace("\"", "\"\"") + "\"";
+	}
+
+	/* Clears the tables of any hours that have passed since last time */
+	private void roll() {
+		long now = System.currentTimeMillis() / HOUR;
+		if(now == hour) {
+			return;
+		}
+		for(long h = Math.max(hour + 1, now - hours.length + 1); h <= now; h++) {
+			hours[(int)(h % hours.length)].clear();
+		}
+		hour = now;
+	}
+
+	private static long key(int from, int to) {
+		return ((long)(from + 1) << 32) | (to & 0xffffffffL);
+	}
+
+	public static class Route {
+		/* QT ids, from is -1 for trips from outside any QT */
+		public final int from;
+		public final int to;
+		public final int trips;
+		public final int failures;
+		public final double revenue;
+		public final int recentTrips;
+
+		Route(int from, int to, int trips, int failures, double revenue, int recentTrips) {
+			this.from = from;
+			this.to = to;
+			this.trips = trips;
+			this.failures = failures;
+			this.revenue = revenue;
+			this.recentTrips = recentTrips;
+		}
+	}
+
+	/* Counts by route key, linear probing, never more than half full */
+	private static class Table {
+		static final long EMPTY = -1L;
+
+		long[] keys = emptyKeys(16);
+		int[] trips = new int[16];
+		int[] failures = new int[16];
+		double[] revenue = new double[16];
+		int size = 0;
+
+		void add(long key, int t, int f, double r) {
+			if(size * 2 >= keys.length) {
+				grow();
+			}
+			int i = slot(key);
+			if(keys[i] == EMPTY) {
+				keys[i] = key;
+				size++;
+			}
+			trips[i] += t;
+			failures[i] += f;
+			revenue[i] += r;
+		}
+
+		int find(long key) {
+			int i = slot(key);
+			return keys[i] == EMPTY ? -1 : i;
+		}
+
+		void addTo(Table other) {
+			for(int i = 0; i < keys.length; i++) {
+				if(keys[i] != EMPTY) {
+					other.add(keys[i], trips[i], failures[i], revenue[i]);
+				}
+			}
+		}
+
+		void clear() {
+			Arrays.fill(keys, EMPTY);
+			Arrays.fill(trips, 0);
+			Arrays.fill(failures, 0);
+			Arrays.fill(revenue, 0);
+			size = 0;
+		}
+
+		/* Routes by location key, "" for outside any QT, skipping QTs no longer in s */
+		void write(DataOutputStream out, QTSnapshot s) throws IOException {
+			String[] names = new String[0];
+			for(QTInfo qt : s.getQTs()) {
+				if(qt.getId() >= names.length) {
+					names = Arrays.copyOf(names, Math.max(qt.getId() + 1, names.length * 2));
+				}
+				/* Location keys, not names, so they can be looked up again on load */
+				names[qt.getId()] = qt.getKey();
+			}
+			int n = 0;
+			for(int i = 0; i < keys.length; i++) {
+				if(keys[i] != EMPTY && known(names, keys[i])) {
+					n++;
+				}
+			}
+			out.writeInt(n);
+			for(int i = 0; i < keys.length; i++) {
+				if(keys[i] == EMPTY || !known(names, keys[i])) {
+					continue;
+				}
+				int from = (int)(keys[i] >> 32) - 1;
+				out.writeUTF(from < 0 ? "" : names[from]);
+				out.writeUTF(names[(int)keys[i]]);
+				out.writeInt(trips[i]);
+				out.writeInt(failures[i]);
+				out.writeDouble(revenue[i]);
+			}
+		}
+
+		void read(DataInputStream in, QTSnapshot s) throws IOException {
+			int n = in.readInt();
+			for(int i = 0; i < n; i++) {
+				String fromKey = in.readUTF();
+				String toKey = in.readUTF();
+				int t = in.readInt();
+				int f = in.readInt();
+				double r = in.readDouble();
+				QTInfo from = fromKey.length() == 0 ? null : s.getQTByKey(fromKey);
+				QTInfo to = s.getQTByKey(toKey);
+				if(to == null || (fromKey.length() > 0 && from == null)) {
+					continue;
+				}
+				add(key(from == null ? -1 : from.getId(), to.getId()), t, f, r);
+			}
+		}
+
+		private static boolean known(String[] names, long key) {
+			int from = (int)(key >> 32) - 1;
+			int to = (int)key;
+			return to < names.length && names[to] != null && (from < 0 || (from < names.length && names[from] != null));
+		}
+
+		private int slot(long key) {
+			int mask = keys.length - 1;
+			int i = (int)((key ^ (key >>> 29)) * 0x9E3779B9L >>> 7) & mask;
+			while(keys[i] != EMPTY && keys[i] != key) {
+				i = (i + 1) & mask;
+			}
+			return i;
+		}
+
+		private void grow() {
+			long[] oldKeys = keys;
+			int[] oldTrips = trips;
+			int[] oldFailures = failures;
+			double[] oldRevenue = revenue;
+			int capacity = oldKeys.length * 2;
+			keys = emptyKeys(capacity);
+			trips = new int[capacity];
+			failures = new int[capacity];
+			revenue = new double[capacity];
+			size = 0;
+			for(int i = 0; i < oldKeys.length; i++) {
+				if(oldKeys[i] != EMPTY) {
+					add(oldKeys[i], oldTrips[i], oldFailures[i], oldRevenue[i]);
+				}
+			}
+		}
+
+		private static long[] emptyKeys(int capacity) {
+			long[] k = new long[capacity];
+			Arrays.fill(k, EMPTY);
+			return k;
+		}
+	}
+}
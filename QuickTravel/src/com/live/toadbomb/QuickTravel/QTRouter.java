@@ -0,0 +1,224 @@
+package com.live.toadbomb.QuickTravel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bukkit.entity.Player;
+
+/* Plans multi-hop journeys over the QT network.
+ * Every QT is a node and there is an edge wherever a player standing at one
+ * QT could travel directly to another, weighted by the price of that trip.
+ * Routes are cheapest first, then fewest hops. */
+public class QTRouter {
+	private static final int MAX_CACHED_ROUTES = 64;
+
+	private final QuickTravel plugin;
+	/* QTs by id, ids are never reused so cached rows stay valid while their QTs do */
+	private final List<QTInfo> nodes = new ArrayList<QTInfo>();
+	private QTSnapshot snapshot = null;
+	/* Single-source results keyed by origin QT, oldest dropped first */
+	private final Map<String, Row> rows = new LinkedHashMap<String, Row>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<String, Row> eldest) {
+			return size() > MAX_CACHED_ROUTES;
+		}
+	};
+
+	public QTRouter(QuickTravel plugin) {
+		this.plugin = plugin;
+	}
+
+	/* Finds the cheapest route for p from QT 'from' to QT 'to' (both location keys).
+	 * Returns the keys of every QT along the way, including both ends, or null. */
+	public Route findRoute(Player p, String from, String to) {
+		refresh();
+		QTInfo origin = snapshot.getQTByKey(from);
+		QTInfo dest = snapshot.getQTByKey(to);
+		if(origin == null || dest == null || origin == dest) {
+			return null;
+		}
+		Row row = rows.get(origin.getKey());
+		if(row == null) {
+			row = search(origin, null);
+			rows.put(origin.getKey(), row);
+		}
+		Route route = row.routeTo(dest);
+		if(route != null && canUse(p, route)) {
+			return route;
+		}
+		/* The shared route uses a QT this player cannot, plan one just for them */
+		return search(origin, p).routeTo(dest);
+	}
+
+	private boolean canUse(Player p, Route route) {
+		for(int i = 1; i < route.hops.size(); i++) {
+			if(!canUse(p, snapshot.getQTByKey(route.hops.get(i)))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean canUse(Player p, QTInfo n) {
+		return plugin.playerHasPermission(p, n.getName()) && plugin.playerHasDiscovered(p, n.getKey());
+	}
+
+	/* Dense Dijkstra, every QT can potentially reach every other one */
+	private Row search(QTInfo origin, Player p) {
+		int size = nodes.size();
+		Row row = new Row(origin, size);
+		boolean[] done = new boolean[size];
+		/* Permission and discovery are looked up once per QT, not once per edge */
+		boolean[] usable = null;
+		if(p != null) {
+			usable = new boolean[size];
+			for(int i = 0; i < size; i++) {
+				QTInfo n = nodes.get(i);
+				usable[i] = n != null && canUse(p, n);
+			}
+		}
+		row.price[origin.getId()] = 0;
+		row.hops[origin.getId()] = 0;
+		while(true) {
+			int u = -1;
+			for(int i = 0; i < size; i++) {
+				if(!done[i] && row.price[i] != Double.POSITIVE_INFINITY && (u < 0 || row.isCheaper(row.price[i], row.hops[i], u))) {
+					u = i;
+				}
+			}
+			if(u < 0) {
+				break;
+			}
+			done[u] = true;
+			QTInfo a = nodes.get(u);
+			for(int i = 0; i < size; i++) {
+				QTInfo b = nodes.get(i);
+				if(done[i] || b == null || !hasEdge(a, b) || (usable != null && !usable[i])) {
+					continue;
+				}
+				double c = row.price[u] + snapshot.getPrice(a, b);
+				int h = row.hops[u] + 1;
+				if(row.price[i] == Double.POSITIVE_INFINITY || row.isCheaper(c, h, i)) {
+					row.price[i] = c;
+					row.hops[i] = h;
+					row.previous[i] = u;
+				}
+			}
+		}
+		return row;
+	}
+
+	private boolean hasEdge(QTInfo a, QTInfo b) {
+		if(a == b || b.isEnabled() == false) {
+			return false;
+		}
+		if(!a.getWorld().equals(b.getWorld())) {
+			return a.isMultiworld() && b.isMultiworld();
+		}
+		return true;
+	}
+
+	/* Picks up the latest snapshot and drops only the cached routes its changes could affect */
+	private void refresh() {
+		QTSnapshot latest = plugin.getRegistry().getSnapshot();
+		if(latest == snapshot) {
+			return;
+		}
+		boolean clearAll = snapshot != null && snapshot.getSettings() != latest.getSettings();
+		snapshot = latest;
+		List<QTInfo> changed = new ArrayList<QTInfo>();
+		Set<QTInfo> seen = new HashSet<QTInfo>();
+		for(QTInfo n : latest.getQTs()) {
+			seen.add(n);
+			while(nodes.size() <= n.getId()) {
+				nodes.add(null);
+			}
+			QTInfo old = nodes.get(n.getId());
+			if(old == n) {
+				continue;
+			}
+			nodes.set(n.getId(), n);
+			if(old == null || !old.sameReach(n)) {
+				/* New QT, or one whose connections to other QTs changed */
+				clearAll = true;
+			} else {
+				changed.add(old);
+			}
+		}
+		for(int i = 0; i < nodes.size(); i++) {
+			QTInfo old = nodes.get(i);
+			if(old != null && !seen.contains(old)) {
+				nodes.set(i, null);
+				changed.add(old);
+			}
+		}
+		if(clearAll == true) {
+			rows.clear();
+			return;
+		}
+		Iterator<Row> ri = rows.values().iterator();
+		while(ri.hasNext()) {
+			Row row = ri.next();
+			for(QTInfo n : changed) {
+				if(row.reaches(n)) {
+					ri.remove();
+					break;
+				}
+			}
+		}
+	}
+
+	private class Row {
+		final QTInfo origin;
+		final double[] price;
+		final int[] hops;
+		final int[] previous;
+
+		Row(QTInfo origin, int size) {
+			this.origin = origin;
+			price = new double[size];
+			hops = new int[size];
+			previous = new int[size];
+			Arrays.fill(price, Double.POSITIVE_INFINITY);
+			Arrays.fill(previous, -1);
+		}
+
+		boolean isCheaper(double c, int h, int i) {
+			return c < price[i] || (c == price[i] && h < hops[i]);
+		}
+
+		boolean reaches(QTInfo n) {
+			return n.getId() == origin.getId() || (n.getId() < price.length && price[n.getId()] != Double.POSITIVE_INFINITY);
+		}
+
+		Route routeTo(QTInfo dest) {
+			if(dest.getId() >= price.length || price[dest.getId()] == Double.POSITIVE_INFINITY) {
+				return null;
+			}
+			List<String> hopList = new ArrayList<String>();
+			for(int i = dest.getId(); i >= 0; i = previous[i]) {
+				hopList.add(nodes.get(i).getKey());
+			}
+			Collections.reverse(hopList);
+			return new Route(hopList, price[dest.getId()]);
+		}
+	}
+
+	public static class Route {
+		public final List<String> hops;
+		public final double price;
+
+		Route(List<String> hops, double price) {
+			this.hops = Collections.unmodifiableList(hops);
+			this.price = price;
+		}
+	}
+}
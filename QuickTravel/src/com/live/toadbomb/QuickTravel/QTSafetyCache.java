@@ -0,0 +1,283 @@
+package com.live.toadbomb.QuickTravel;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bukkit.Location;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockBurnEvent;
+import org.bukkit.event.block.BlockFromToEvent;
+import org.bukkit.event.block.BlockPistonExtendEvent;
+import org.bukkit.event.block.BlockPistonRetractEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.block.LeavesDecayEvent;
+import org.bukkit.event.entity.EntityChangeBlockEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.player.PlayerBucketEmptyEvent;
+import org.bukkit.event.world.StructureGrowEvent;
+
+/* Remembers which destinations checkSafe has already made safe, so travels
+ * to them skip looking over the blocks around them again. A destination
+ * stays safe until a block in the area checkSafe looks at (one block either
+ * side, two above and below) is placed, broken, flowed into, blown up, has
+ * a bucket emptied into it, is pushed or pulled by a piston, burns, decays,
+ * is grown over or is changed by a mob. Those blocks are found through an
+ * index of the block columns each destination covers. As changes made
+ * without events (falling sand and gravel, other plugins) cannot be seen,
+ * a verdict is also forgotten after a while. Main thread only. */
+public class QTSafetyCache implements Listener {
+	private final long maxAge;
+	/* When each destination was last made safe, by world name then block position */
+	private final Map<String, Map<Long, Long>> safe = new HashMap<String, Map<Long, Long>>();
+	/* Positions of the safe destinations covering each block column, by world name then column */
+	private final Map<String, Map<Long, long[]>> columns = new HashMap<String, Map<Long, long[]>>();
+
+	/* maxAgeMillis of 0 or less keeps verdicts until a block changes */
+	public QTSafetyCache(long maxAgeMillis) {
+		this.maxAge = maxAgeMillis * 1000000L;
+	}
+
+	/* Destinations known to be safe */
+	public int size() {
+		int n = 0;
+		for(Map<Long, Long> w : safe.values()) {
+			n += w.size();
+		}
+		return n;
+	}
+
+	/* True if d was made safe and nothing around it has changed since */
+	public boolean isSafe(Location d) {
+		Map<Long, Long> w = safe.get(d.getWorld().getName());
+		if(w == null) {
+			return false;
+		}
+		long pos = position(d.getBlockX(), d.getBlockY(), d.getBlockZ());
+		Long at = w.get(pos);
+		if(at == null) {
+			return false;
+		}
+		if(maxAge > 0 && System.nanoTime() - at > maxAge) {
+			forget(d.getWorld().getName(), pos);
+			return false;
+		}
+		return true;
+	}
+
+	/* Records that checkSafe has just made d safe */
+	public void markSafe(Location d) {
+		String world = d.getWorld().getName();
+		Map<Long, Long> w = safe.get(world);
+		if(w == null) {
+			w = new HashMap<Long, Long>();
+			safe.put(world, w);
+		}
+		int x = d.getBlockX();
+		int y = d.getBlockY();
+		int z = d.getBlockZ();
+		long pos = position(x, y, z);
+		if(w.put(pos, System.nanoTime()) != null) {
+			/* Already indexed */
+			return;
+		}
+		Map<Long, long[]> c = columns.get(world);
+		if(c == null) {
+			c = new HashMap<Long, long[]>();
+			columns.put(world, c);
+		}
+		for(int cx = x - 1; cx <= x + 1; cx++) {
+			for(int cz = z - 1; cz <= z + 1; cz++) {
+				long column = column(cx, cz);
+				long[] dests = c.get(column);
+				if(dests == null) {
+					c.put(column, new long[] { pos });
+				} else {
+					/* Destinations this close together are rare, a short array will do */
+					dests = Arrays.copyOf(dests, dests.length + 1);
+					dests[dests.length - 1] = pos;
+					c.put(column, dests);
+				}
+			}
+		}
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onBlockPlace(BlockPlaceEvent event) {
+		if(event.isCancelled() == false) {
+			changed(event.getBlock());
+		}
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onBlockBreak(BlockBreakEvent event) {
+		if(event.isCancelled() == false) {
+			changed(event.getBlock());
+		}
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onBlockFromTo(BlockFromToEvent event) {
+		if(event.isCancelled() == false) {
+			changed(event.getToBlock());
+		}
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onPlayerBucketEmpty(PlayerBucketEmptyEvent event) {
+		/* Lava from a bucket is not a block place */
+		if(event.isCancelled() == false) {
+			changed(event.getBlockClicked().getRelative(event.getBlockFace()));
+		}
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onBlockPistonExtend(BlockPistonExtendEvent event) {
+		if(safe.isEmpty() || event.isCancelled()) {
+			return;
+		}
+		/* Every pushed block moves one on, the head takes the space in front */
+		changed(event.getBlock().getRelative(event.getDirection()));
+		for(Block b : event.getBlocks()) {
+			changed(b);
+			changed(b.getRelative(event.getDirection()));
+		}
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onBlockPistonRetract(BlockPistonRetractEvent event) {
+		if(event.isCancelled() == false) {
+			/* The head, and any block a sticky piston pulls into its place */
+			changed(event.getBlock().getRelative(event.getDirection()));
+			if(event.isSticky()) {
+				changed(event.getRetractLocation().getBlock());
+			}
+		}
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onBlockBurn(BlockBurnEvent event) {
+		if(event.isCancelled() == false) {
+			changed(event.getBlock());
+		}
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onLeavesDecay(LeavesDecayEvent event) {
+		if(event.isCancelled() == false) {
+			changed(event.getBlock());
+		}
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onStructureGrow(StructureGrowEvent event) {
+		if(safe.isEmpty() || event.isCancelled()) {
+			return;
+		}
+		for(BlockState s : event.getBlocks()) {
+			changed(s.getBlock());
+		}
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onEntityChangeBlock(EntityChangeBlockEvent event) {
+		/* Endermen taking and placing blocks */
+		if(event.isCancelled() == false) {
+			changed(event.getBlock());
+		}
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onEntityExplode(EntityExplodeEvent event) {
+		if(safe.isEmpty() || event.isCancelled()) {
+			return;
+		}
+		for(Block b : event.blockList()) {
+			changed(b);
+		}
+	}
+
+	/* Forgets any destination whose checked area holds b */
+	private void changed(Block b) {
+		if(safe.isEmpty()) {
+			return;
+		}
+		Map<Long, long[]> c = columns.get(b.getWorld().getName());
+		if(c == null) {
+			return;
+		}
+		long[] dests = c.get(column(b.getX(), b.getZ()));
+		if(dests == null) {
+			return;
+		}
+		/* forget changes the arrays in place */
+		for(long pos : dests.clone()) {
+			int dy = b.getY() - y(pos);
+			if(dy >= -2 && dy <= 2) {
+				forget(b.getWorld().getName(), pos);
+			}
+		}
+	}
+
+	private void forget(String world, long pos) {
+		Map<Long, Long> w = safe.get(world);
+		if(w == null || w.remove(pos) == null) {
+			return;
+		}
+		if(w.isEmpty()) {
+			safe.remove(world);
+		}
+		Map<Long, long[]> c = columns.get(world);
+		int x = x(pos);
+		int z = z(pos);
+		for(int cx = x - 1; cx <= x + 1; cx++) {
+			for(int cz = z - 1; cz <= z + 1; cz++) {
+				long column = column(cx, cz);
+				long[] dests = c.get(column);
+				if(dests == null) {
+					continue;
+				}
+				int n = 0;
+				for(long p : dests) {
+					if(p != pos) {
+						dests[n++] = p;
+					}
+				}
+				if(n == 0) {
+					c.remove(column);
+				} else if(n < dests.length) {
+					c.put(column, Arrays.copyOf(dests, n));
+				}
+			}
+		}
+		if(c.isEmpty()) {
+			columns.remove(world);
+		}
+	}
+
+	/* x and z in 26 bits each, y in 12 */
+	private static long position(int x, int y, int z) {
+		return ((long)(x & 0x3FFFFFF) << 38) | ((long)(z & 0x3FFFFFF) << 12) | (y & 0xFFF);
+	}
+
+	private static int x(long pos) {
+		return (int)(pos >> 38);
+	}
+
+	private static int y(long pos) {
+		return (int)(pos & 0xFFF);
+	}
+
+	private static int z(long pos) {
+		return (int)(pos << 26 >> 38);
+	}
+
+	private static long column(int x, int z) {
+		return ((long)x << 32) | (z & 0xffffffffL);
+	}
+}
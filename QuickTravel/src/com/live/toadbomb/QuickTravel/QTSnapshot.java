@@ -0,0 +1,121 @@
+package com.live.toadbomb.QuickTravel;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/* An immutable view of every QT and its prices.
+ * A new snapshot replaces the old one whenever QuickTravel's data changes,
+ * so a snapshot can be read from any thread without locking. */
+public final class QTSnapshot {
+	private final long version;
+	private final List<QTInfo> qts;
+	private final Map<String, QTInfo> byKey;
+	private final Map<String, QTInfo> byName;
+	private final Settings settings;
+
+	QTSnapshot(long version, List<QTInfo> qts, Map<String, QTInfo> byKey, Map<String, QTInfo> byName, Settings settings) {
+		this.version = version;
+		this.qts = Collections.unmodifiableList(qts);
+		this.byKey = byKey;
+		this.byName = byName;
+		this.settings = settings;
+	}
+
+	/* Goes up by at least one every time the data changes */
+	public long getVersion() {
+		return version;
+	}
+
+	/* Every QT, in the order they were created */
+	public List<QTInfo> getQTs() {
+		return qts;
+	}
+
+	/* Looks a QT up by name, ignoring case */
+	public QTInfo getQT(String name) {
+		return byName.get(name.toLowerCase());
+	}
+
+	public QTInfo getQTByKey(String key) {
+		return byKey.get(key);
+	}
+
+	public boolean isEconomyEnabled() {
+		return settings.economyEnabled;
+	}
+
+	/* Price of travelling from one QT to another, as charged by /qt */
+	public double getPrice(QTInfo from, QTInfo to) {
+		if(settings.economyEnabled == false) {
+			return 0;
+		}
+		boolean multiworld = !from.getWorld().equalsIgnoreCase(to.getWorld());
+		double tax = 0;
+		if(multiworld == true) {
+			tax = settings.multiworldTax;
+		}
+		if((from.isFree() && from.isFreeSet()) || (to.isFree() && to.isFreeSet())) {
+			return tax;
+		}
+		Double c = to.getChargeFrom().get(from.getKey());
+		if(c != null) {
+			return c + tax;
+		}
+		if(settings.chargeFromQTs == true) {
+			double m = settings.priceMultiplier;
+			if(multiworld == true) {
+				m = settings.multiworldMultiplier;
+			}
+			return calculatePrice(from.getDestX(), from.getDestY(), from.getDestZ(), to.getDestX(), to.getDestY(), to.getDestZ(), m) + tax;
+		}
+		return tax;
+	}
+
+	/* Price of travelling to a QT from somewhere that is not one, with qt-from-anywhere on, as charged by /qt */
+	public double getPrice(String world, double x, double y, double z, QTInfo to) {
+		if(settings.economyEnabled == false) {
+			return 0;
+		}
+		boolean multiworld = !world.equalsIgnoreCase(to.getWorld());
+		double tax = 0;
+		if(multiworld == true) {
+			tax = settings.multiworldTax;
+		}
+		if(settings.freeByDefault == true || (to.isFree() && to.isFreeSet())) {
+			return tax;
+		}
+		double m = settings.priceMultiplier;
+		if(multiworld == true) {
+			m = settings.multiworldMultiplier;
+		}
+		return calculatePrice(x, y, z, to.getDestX(), to.getDestY(), to.getDestZ(), m) + tax;
+	}
+
+	/* Distance based price, the sum of the differences on each axis times m */
+	static int calculatePrice(double xFrom, double yFrom, double zFrom, double xTo, double yTo, double zTo, double m) {
+		return (int) Math.ceil((Math.abs(xFrom - xTo) + Math.abs(yFrom - yTo) + Math.abs(zFrom - zTo)) * m);
+	}
+
+	Settings getSettings() {
+		return settings;
+	}
+
+	/* The parts of config.yml snapshots depend on */
+	static class Settings {
+		boolean economyEnabled;
+		/* Whether travel between QTs without a set price is charged by distance */
+		boolean chargeFromQTs;
+		boolean freeByDefault;
+		boolean requireDiscoveryByDefault;
+		boolean multiworldByDefault;
+		double multiworldTax;
+		double priceMultiplier;
+		double multiworldMultiplier;
+
+		boolean sameAs(Settings o) {
+			return economyEnabled == o.economyEnabled && chargeFromQTs == o.chargeFromQTs && freeByDefault == o.freeByDefault && requireDiscoveryByDefault == o.requireDiscoveryByDefault
+					&& multiworldByDefault == o.multiworldByDefault && multiworldTax == o.multiworldTax && priceMultiplier == o.priceMultiplier && multiworldMultiplier == o.multiworldMultiplier;
+		}
+	}
+}
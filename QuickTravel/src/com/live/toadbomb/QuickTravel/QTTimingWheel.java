@@ -0,0 +1,129 @@
+package com.live.toadbomb.QuickTravel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/* Runs timers after a number of ticks, all from one sync repeating task
+ * instead of a scheduler task each. Timers hang in a ring of slots by the
+ * tick they are due on, in a linked list per slot, so scheduling and
+ * cancelling take the same short time however many are pending. A timer
+ * more than one turn of the ring away waits out the extra turns in its
+ * slot. Main thread only. */
+public class QTTimingWheel implements Runnable {
+	/* Slot of a timer taken out to run this tick */
+	private static final int FIRING = -2;
+
+	public static abstract class Timer {
+		/* Turns of the wheel still to wait once the slot comes round */
+		private long rounds;
+		/* Slot it hangs in, -1 when not pending, FIRING while due to run */
+		private int slot = -1;
+		private Timer prev;
+		private Timer next;
+
+		public boolean isPending() {
+			return slot >= 0;
+		}
+
+		/* Called on the main thread when the timer is due */
+		public abstract void run();
+	}
+
+	private final Timer[] slots;
+	private final int mask;
+	private long tick = 0;
+	private int size = 0;
+	/* Timers due this tick, kept to save allocating */
+	private final List<Timer> due = new ArrayList<Timer>();
+
+	/* slotCount is rounded up to a power of two */
+	public QTTimingWheel(int slotCount) {
+		int n = Integer.highestOneBit(Math.max(2, slotCount - 1)) << 1;
+		this.slots = new Timer[n];
+		this.mask = n - 1;
+	}
+
+	/* Ticks run so far */
+	public long getTick() {
+		return tick;
+	}
+
+	/* Timers pending */
+	public int size() {
+		return size;
+	}
+
+	/* Runs t after delay ticks (at least one), rescheduling it if already pending */
+	public void schedule(Timer t, long delay) {
+		if(t.isPending()) {
+			cancel(t);
+		}
+		delay = Math.max(1, delay);
+		t.slot = (int)((tick + delay) & mask);
+		t.rounds = (delay - 1) / slots.length;
+		t.prev = null;
+		t.next = slots[t.slot];
+		if(t.next != null) {
+			t.next.prev = t;
+		}
+		slots[t.slot] = t;
+		size++;
+	}
+
+	/* Stops t running, returns false if it was not pending */
+	public boolean cancel(Timer t) {
+		if(t.slot == FIRING) {
+			/* Cancelled by another timer due the same tick */
+			t.slot = -1;
+			return true;
+		}
+		if(!t.isPending()) {
+			return false;
+		}
+		if(t.prev != null) {
+			t.prev.next = t.next;
+		} else {
+			slots[t.slot] = t.next;
+		}
+		if(t.next != null) {
+			t.next.prev = t.prev;
+		}
+		t.prev = null;
+		t.next = null;
+		t.slot = -1;
+		size--;
+		return true;
+	}
+
+	/* Moves on a tick and runs whatever is due */
+	public void run() {
+		tick++;
+		Timer t = slots[(int)(tick & mask)];
+		while(t != null) {
+			Timer next = t.next;
+			if(t.rounds > 0) {
+				t.rounds--;
+			} else {
+				cancel(t);
+				t.slot = FIRING;
+				due.add(t);
+			}
+			t = next;
+		}
+		/* Taken out first, so timers may schedule and cancel others while running */
+		for(int i = 0; i < due.size(); i++) {
+			t = due.get(i);
+			if(t.slot != FIRING) {
+				/* Cancelled or scheduled again meanwhile */
+				continue;
+			}
+			t.slot = -1;
+			try {
+				t.run();
+			} catch(RuntimeException e) {
+				QuickTravel.severe("QuickTravel timer failed: " + e);
+			}
+		}
+		due.clear();
+	}
+}
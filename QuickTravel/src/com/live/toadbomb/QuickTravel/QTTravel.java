@@ -0,0 +1,420 @@
+package com.live.toadbomb.QuickTravel;
+
+import net.milkbowl.vault.economy.EconomyResponse;
+
+import org.bukkit.ChatColor;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+/* One QuickTravel from start to finish, run as a series of stages:
+ * validate, warmup, quote, reserve, admit, preload, make safe, teleport,
+ * effects, commit.
+ * Each stage moves on to the next, waits and carries on later, or fails the
+ * travel. Money taken by the reserve stage is given back if the travel fails
+ * before the player has been teleported. After any wait the player and QT
+ * are checked again, including that the player is still at the QT they
+ * started from and may still go there. With the async economy turned on, the quote and
+ * reserve stages wait for QTEconomy to answer. With the admission queue
+ * turned on, the admit stage waits for QTAdmission to let it through. Any
+ * warmup and cooldowns are kept by QTCooldowns. Main thread only. */
+public class QTTravel implements QTAdmission.Ticket {
+	public static final int VALIDATE = 0;
+	public static final int WARMUP = 1;
+	public static final int QUOTE = 2;
+	public static final int RESERVE = 3;
+	public static final int ADMIT = 4;
+	public static final int PRELOAD = 5;
+	public static final int SAFE = 6;
+	public static final int TELEPORT = 7;
+	public static final int EFFECTS = 8;
+	public static final int COMMIT = 9;
+	public static final int DONE = 10;
+	private static final String[] STAGES = { "validate", "warmup", "quote", "reserve", "admit", "preload", "make safe", "teleport", "effects", "commit" };
+
+	/* What a stage asks for next */
+	private static final int NEXT = 0;
+	private static final int WAIT = 1;
+	private static final int FAILED = 2;
+
+	private final QuickTravel plugin;
+	private final Player player;
+	private final int playerId;
+	private final String requested;
+	private final double price;
+	private int stage = VALIDATE;
+	private QTInfo qt;
+	/* Name of the QT travelled from, null if not at one */
+	private String current = null;
+	/* Id of the QT travelled from, -1 if not at one */
+	private int fromId = -1;
+	private World world;
+	private Location from;
+	private Location dest;
+	/* Amount taken by the reserve stage and not yet committed */
+	private double reserved = 0;
+	private boolean fromBank = false;
+
+	/* price is what the player was quoted for travelling to the QT named requested */
+	public QTTravel(QuickTravel plugin, Player player, String requested, double price) {
+		this.plugin = plugin;
+		this.player = player;
+		this.playerId = plugin.getPlayerId(player);
+		this.requested = requested;
+		this.price = price;
+	}
+
+	public Player getPlayer() {
+		return player;
+	}
+
+	/* Current stage, DONE once finished either way */
+	public int getStage() {
+		return stage;
+	}
+
+	public Location getDestination() {
+		return dest;
+	}
+
+	public int getSize() {
+		return 1;
+	}
+
+	/* Calls the travel off wherever it has got to, giving back anything reserved. For onDisable */
+	public void cancel(String message) {
+		if(stage < DONE) {
+			fail(message);
+		}
+	}
+
+	/* Let through by QTAdmission */
+	public void admitted() {
+		if(stage != ADMIT) {
+			return;
+		}
+		stage++;
+		run();
+	}
+
+	/* Runs stages until one waits, fails or the travel is done */
+	public void run() {
+		while(stage < DONE) {
+			if(stage > VALIDATE && validate() == FAILED) {
+				return;
+			}
+			int result;
+			try {
+				result = runStage();
+			} catch(RuntimeException e) {
+				QuickTravel.severe("QuickTravel of " + player.getName() + " failed at " + STAGES[stage] + ": " + e);
+				fail("Something went wrong.");
+				return;
+			}
+			if(result != NEXT) {
+				return;
+			}
+			stage++;
+		}
+	}
+
+	private int runStage() {
+		switch(stage) {
+		case VALIDATE:
+			return validate();
+		case WARMUP:
+			return warmup();
+		case QUOTE:
+			return quote();
+		case RESERVE:
+			return reserve();
+		case ADMIT:
+			if(plugin.getAdmission() == null || plugin.getAdmission().enter(this)) {
+				return NEXT;
+			}
+			return WAIT;
+		case PRELOAD:
+			return preload();
+		case SAFE:
+			dest = plugin.checkSafe(dest, player);
+			return NEXT;
+		case TELEPORT:
+			return teleport();
+		case EFFECTS:
+			try {
+				plugin.QTEffect(from, dest);
+			} catch(RuntimeException e) {
+				/* Only cosmetic, the player has already arrived */
+				QuickTravel.warning("Could not play QuickTravel effects: " + e);
+			}
+			return NEXT;
+		case COMMIT:
+			if(plugin.getRouteStats() != null) {
+				plugin.getRouteStats().record(fromId, qt.getId(), false, reserved);
+			}
+			if(plugin.getPreloader() != null) {
+				plugin.getPreloader().travelled(playerId, qt.getId());
+			}
+			if(plugin.getCooldowns() != null) {
+				plugin.getCooldowns().travelled(playerId, qt.getId());
+			}
+			reserved = 0;
+			plugin.travelFinished(player, this);
+			return NEXT;
+		}
+		return NEXT;
+	}
+
+	/* Player still here and able to go, and the QT still there, re-run before every stage after the first */
+	private int validate() {
+		if(stage > TELEPORT) {
+			/* Already arrived, nothing can undo that now */
+			return NEXT;
+		}
+		if(!player.isOnline() || player.isDead()) {
+			fail(null);
+			return FAILED;
+		}
+		if(stage == TELEPORT) {
+			/* Checked just before making it safe, in the same tick */
+			return NEXT;
+		}
+		QTSnapshot snapshot = plugin.getRegistry().getSnapshot();
+		if(stage == VALIDATE) {
+			current = plugin.getCurrentQT(player);
+			QTInfo from = current == null ? null : snapshot.getQT(current);
+			fromId = from == null ? -1 : from.getId();
+		}
+		qt = snapshot.getQT(requested);
+		if(qt == null || qt.isEnabled() == false) {
+			fail(ChatColor.AQUA + requested + ChatColor.WHITE + " is no longer available.");
+			return FAILED;
+		}
+		if(stage > VALIDATE && !plugin.canStillTravel(player, current, requested)) {
+			/* They may have walked off or lost a permission while waiting */
+			fail("You can no longer go there from here.");
+			return FAILED;
+		}
+		if(stage == VALIDATE && plugin.getCooldowns() != null) {
+			long wait = plugin.getCooldowns().remaining(playerId, qt.getId());
+			if(wait > 0) {
+				fail("You must wait " + ChatColor.GOLD + ((wait + 19) / 20) + ChatColor.WHITE + " more seconds before QuickTravelling there.");
+				return FAILED;
+			}
+		}
+		world = plugin.getServer().getWorld(qt.getWorld());
+		if(world == null) {
+			fail("The world " + ChatColor.AQUA + qt.getWorld() + ChatColor.WHITE + " is not loaded.");
+			return FAILED;
+		}
+		if(stage <= SAFE) {
+			dest = new Location(world, qt.getDestX(), qt.getDestY(), qt.getDestZ(), qt.getDestYaw(), qt.getDestPitch());
+		}
+		return NEXT;
+	}
+
+	/* Waits for the player to stand still through the warmup, if there is one */
+	private int warmup() {
+		QTCooldowns cooldowns = plugin.getCooldowns();
+		if(cooldowns == null || !cooldowns.warmup(player, playerId, new QTCooldowns.Warmup() {
+			public void done(String cancelled) {
+				if(stage != WARMUP) {
+					return;
+				}
+				if(cancelled != null) {
+					fail(cancelled + " QuickTravel cancelled.");
+					return;
+				}
+				stage++;
+				run();
+			}
+		})) {
+			return NEXT;
+		}
+		player.sendMessage(ChatColor.BLUE + "QuickTravelling in " + ChatColor.GOLD + ((cooldowns.getWarmupTicks() + 19) / 20) + ChatColor.BLUE + " seconds, do not move...");
+		return WAIT;
+	}
+
+	private int quote() {
+		if(!charges()) {
+			return NEXT;
+		}
+		QTEconomy eco = plugin.getAsyncEconomy();
+		if(eco == null) {
+			if(!EcoSetup.economy.has(player.getName(), price)) {
+				fail("You do not have enough money to go there.");
+				return FAILED;
+			}
+			return NEXT;
+		}
+		eco.has(player.getName(), price, new QTEconomy.Callback() {
+			public void done(EconomyResponse r) {
+				if(stage != QUOTE) {
+					return;
+				}
+				if(!r.transactionSuccess()) {
+					fail(notAfforded(r));
+					return;
+				}
+				stage++;
+				run();
+			}
+		});
+		return WAIT;
+	}
+
+	private int reserve() {
+		if(!charges()) {
+			player.sendMessage(ChatColor.BLUE + "QuickTravelling to " + ChatColor.AQUA + qt.getName() + ChatColor.BLUE + "...");
+			return NEXT;
+		}
+		fromBank = EcoSetup.economy.hasBankSupport() && plugin.getConfig().getBoolean("withdraw-from-player-not-bank") == false;
+		QTEconomy eco = plugin.getAsyncEconomy();
+		if(eco == null) {
+			EconomyResponse r;
+			if(fromBank == true) {
+				r = EcoSetup.economy.bankWithdraw(player.getName(), price);
+			} else {
+				r = EcoSetup.economy.withdrawPlayer(player.getName(), price);
+			}
+			return reserved(r) ? NEXT : FAILED;
+		}
+		eco.withdraw(player.getName(), price, fromBank, new QTEconomy.Callback() {
+			public void done(EconomyResponse r) {
+				if(stage != RESERVE) {
+					if(r.transactionSuccess()) {
+						/* Cannot happen while one travel waits on one call, but never keep money by mistake */
+						audit(price, QTAuditLog.CHARGED);
+						reserved = price;
+						refund();
+					}
+					return;
+				}
+				if(reserved(r)) {
+					stage++;
+					run();
+				}
+			}
+		});
+		return WAIT;
+	}
+
+	/* Handles the answer to the withdrawal, returns false if the travel failed */
+	private boolean reserved(EconomyResponse r) {
+		if(r == null || !r.transactionSuccess()) {
+			audit(price, QTEconomy.timedOut(r) ? QTAuditLog.TIMED_OUT : QTAuditLog.DECLINED);
+			fail(notAfforded(r));
+			return false;
+		}
+		audit(price, QTAuditLog.CHARGED);
+		reserved = price;
+		player.sendMessage(ChatColor.BLUE + "QuickTravelling to " + ChatColor.AQUA + qt.getName() + ChatColor.BLUE + " for " + ChatColor.GOLD + EcoSetup.economy.format(price) + ChatColor.BLUE + "...");
+		return true;
+	}
+
+	private static String notAfforded(EconomyResponse r) {
+		if(QTEconomy.timedOut(r)) {
+			return "The economy is not responding, please try again later.";
+		}
+		return "You do not have enough money to go there.";
+	}
+
+	/* Loads the chunks around the destination, then carries on next tick so the load and the teleport do not share a tick */
+	private int preload() {
+		boolean loaded = false;
+		int x = dest.getBlockX();
+		int z = dest.getBlockZ();
+		/* checkSafe looks one block either side, which may be in the next chunk */
+		for(int cx = (x - 1) >> 4; cx <= (x + 1) >> 4; cx++) {
+			for(int cz = (z - 1) >> 4; cz <= (z + 1) >> 4; cz++) {
+				if(!world.isChunkLoaded(cx, cz)) {
+					world.loadChunk(cx, cz);
+					loaded = true;
+				}
+			}
+		}
+		if(loaded == false) {
+			return NEXT;
+		}
+		stage++;
+		plugin.getServer().getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
+			public void run() {
+				QTTravel.this.run();
+			}
+		}, 1);
+		return WAIT;
+	}
+
+	private int teleport() {
+		from = player.getLocation();
+		if(!player.teleport(dest)) {
+			fail("The teleport was cancelled.");
+			return FAILED;
+		}
+		return NEXT;
+	}
+
+	private void audit(double amount, int outcome) {
+		QTAuditLog log = plugin.getAuditLog();
+		if(log != null) {
+			log.record(playerId, fromId, qt == null ? -1 : qt.getId(), amount, fromBank, outcome);
+		}
+	}
+
+	private boolean charges() {
+		return QuickTravel.economyEnabled == true && price > 0;
+	}
+
+	/* Ends the travel, giving back anything reserved. message (if any) is shown to the player */
+	private void fail(String message) {
+		int at = stage;
+		stage = DONE;
+		plugin.travelFinished(player, this);
+		if(at > RESERVE && qt != null && plugin.getRouteStats() != null) {
+			/* Not counted before then, when it is down to the player (cooldown, money, moving) */
+			plugin.getRouteStats().record(fromId, qt.getId(), true, 0);
+		}
+		if(player.isOnline() && message != null) {
+			if(at <= QUOTE) {
+				player.sendMessage(message);
+			} else {
+				player.sendMessage("[" + ChatColor.RED + "Error" + ChatColor.WHITE + "] Could not QuickTravel: " + message);
+			}
+		}
+		refund();
+	}
+
+	/* Gives back whatever was reserved, the same way it was taken */
+	private void refund() {
+		final double amount = reserved;
+		reserved = 0;
+		if(amount <= 0) {
+			return;
+		}
+		QTEconomy eco = plugin.getAsyncEconomy();
+		if(eco == null) {
+			EconomyResponse r;
+			if(fromBank == true) {
+				r = EcoSetup.economy.bankDeposit(player.getName(), amount);
+			} else {
+				r = EcoSetup.economy.depositPlayer(player.getName(), amount);
+			}
+			refunded(r, amount);
+			return;
+		}
+		eco.deposit(player.getName(), amount, fromBank, new QTEconomy.Callback() {
+			public void done(EconomyResponse r) {
+				refunded(r, amount);
+			}
+		});
+	}
+
+	private void refunded(EconomyResponse r, double amount) {
+		audit(amount, r != null && r.transactionSuccess() ? QTAuditLog.REFUNDED : QTAuditLog.REFUND_FAILED);
+		if(r == null || !r.transactionSuccess()) {
+			QuickTravel.severe("Could not refund " + amount + " to " + player.getName() + " after a failed QuickTravel: " + (r == null ? "no response" : r.errorMessage));
+		} else if(player.isOnline()) {
+			player.sendMessage("You have been refunded " + ChatColor.GOLD + EcoSetup.economy.format(amount) + ChatColor.WHITE + ".");
+		}
+	}
+}
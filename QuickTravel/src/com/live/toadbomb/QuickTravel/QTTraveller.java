@@ -0,0 +1,140 @@
+package com.live.toadbomb.QuickTravel;
+
+import java.util.BitSet;
+import java.util.Set;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+/* What QuickTravel needs to know about a player to work out where they can
+ * go and what it costs. Captured on the main thread, after which it can be
+ * checked against a QTSnapshot from any thread. */
+public class QTTraveller {
+	/* Player id, see QTPlayerIds */
+	final int id;
+	final String name;
+	final String world;
+	final double x;
+	final double y;
+	final double z;
+	/* The QT the player is standing in, or null */
+	final QTInfo current;
+	final boolean useAll;
+	/* Ids of the QTs needing permissions which the player has qt.use.<name> for */
+	final BitSet permitted = new BitSet();
+	/* Ids of the QTs the player has discovered */
+	final BitSet discovered = new BitSet();
+
+	private QTTraveller(Player p, int id, QTInfo current, boolean useAll) {
+		Location loc = p.getLocation();
+		this.id = id;
+		this.name = p.getName();
+		this.world = p.getWorld().getName();
+		this.x = loc.getX();
+		this.y = loc.getY();
+		this.z = loc.getZ();
+		this.current = current;
+		this.useAll = useAll;
+	}
+
+	public static QTTraveller capture(QuickTravel plugin, Player p, QTSnapshot snapshot) {
+		String qt = plugin.getCurrentQT(p);
+		QTPermissions permissions = plugin.getQTPermissions();
+		QTTraveller t = new QTTraveller(p, plugin.getPlayerId(p), qt == null ? null : snapshot.getQT(qt), permissions.hasUseAll(p));
+		t.permitted.or(permissions.getPermitted(p, snapshot));
+		Set<String> keys = plugin.getDiscoveries().getDiscovered(t.id);
+		if(keys != null) {
+			for(String key : keys) {
+				QTInfo d = snapshot.getQTByKey(key);
+				if(d != null) {
+					t.discovered.set(d.getId());
+				}
+			}
+		}
+		return t;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getWorld() {
+		return world;
+	}
+
+	public QTInfo getCurrent() {
+		return current;
+	}
+
+	/* Straight line distance to qt's destination, ignoring worlds */
+	public double distanceTo(QTInfo qt) {
+		double dx = qt.getDestX() - x;
+		double dy = qt.getDestY() - y;
+		double dz = qt.getDestZ() - z;
+		return Math.sqrt(dx * dx + dy * dy + dz * dz);
+	}
+
+	/* Same rules as playerHasPermission */
+	public boolean hasPermission(QTInfo qt) {
+		if(qt.requiresPermissions() == false || permitted.get(qt.getId())) {
+			return true;
+		}
+		return qt.isPermissionsSet() == false && useAll == true;
+	}
+
+	/* Same rules as runChecks, without the messages */
+	public boolean canTravelTo(QTSnapshot s, QTInfo qt) {
+		if(qt == current || qt.isEnabled() == false || !hasPermission(qt)) {
+			return false;
+		}
+		if(!world.equals(qt.getWorld())) {
+			/* Both ends must allow travel between worlds */
+			if(current != null && current.isMultiworld() == false) {
+				return false;
+			} else if(current == null && s.getSettings().multiworldByDefault == false) {
+				return false;
+			}
+			if(qt.isMultiworld() == false) {
+				return false;
+			}
+		}
+		return qt.requiresDiscovery() == false || discovered.get(qt.getId());
+	}
+
+	/* Price shown next to qt in the /qt list, 0 if there is none */
+	public double listPrice(QTSnapshot s, QTInfo qt) {
+		QTSnapshot.Settings settings = s.getSettings();
+		if(settings.economyEnabled == false) {
+			return 0;
+		}
+		boolean multiworld = !world.equalsIgnoreCase(qt.getWorld());
+		double tax = 0;
+		if(multiworld == true) {
+			tax = settings.multiworldTax;
+		}
+		double m = settings.priceMultiplier;
+		if(multiworld == true) {
+			m = settings.multiworldMultiplier;
+		}
+		if(current != null) {
+			if(qt.isFree() || current.isFree()) {
+				return tax;
+			}
+			Double c = qt.getChargeFrom().get(current.getKey());
+			if(c != null) {
+				return c + tax;
+			}
+			if(settings.chargeFromQTs == true) {
+				return QTSnapshot.calculatePrice(current.getDestX(), current.getDestY(), current.getDestZ(), qt.getDestX(), qt.getDestY(), qt.getDestZ(), m) + tax;
+			}
+			return tax;
+		} else if(settings.freeByDefault == false) {
+			return s.getPrice(world, x, y, z, qt);
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,163 @@
+package com.live.toadbomb.QuickTravel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.Location;
+
+/* The enabled QT zones of each world on a coarse grid of block columns,
+ * used to find how far a player is from the nearest QT zone. Each zone is
+ * listed in every cell it covers, and a lookup searches rings of cells
+ * outwards from the player until nothing further out could be nearer.
+ * Zones match the checks in checkRadiusQT and checkCuboidQT, so a player
+ * outside every zone cannot be in a QT. Main thread only. */
+public class QTZoneIndex {
+	/* Width of a grid cell in blocks */
+	private static final int CELL = 128;
+	/* How many rings of cells a lookup searches before giving up */
+	private static final int MAX_RINGS = 16;
+	/* Zones covering more cells than this are checked on every lookup instead */
+	private static final int MAX_CELLS = 256;
+
+	private final QuickTravel plugin;
+	private QTSnapshot snapshot = null;
+	private Map<String, Grid> grids = new HashMap<String, Grid>();
+
+	public QTZoneIndex(QuickTravel plugin) {
+		this.plugin = plugin;
+	}
+
+	/* Distance from loc to the nearest QT zone in its world, 0 if inside one.
+	 * Past the rings searched this is only a lower bound, which is all callers need. */
+	public double distanceTo(Location loc) {
+		refresh();
+		Grid grid = grids.get(loc.getWorld().getName());
+		if(grid == null) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return grid.distanceTo(loc.getX(), loc.getY(), loc.getZ());
+	}
+
+	private void refresh() {
+		QTSnapshot latest = plugin.getRegistry().getSnapshot();
+		if(latest == snapshot) {
+			return;
+		}
+		snapshot = latest;
+		Map<String, Grid> built = new HashMap<String, Grid>();
+		for(QTInfo qt : latest.getQTs()) {
+			if(qt.isEnabled() == false) {
+				continue;
+			}
+			Grid grid = built.get(qt.getWorld());
+			if(grid == null) {
+				grid = new Grid();
+				built.put(qt.getWorld(), grid);
+			}
+			grid.add(qt);
+		}
+		grids = built;
+	}
+
+	private static int cell(double v) {
+		return (int)Math.floor(v / CELL);
+	}
+
+	private static long key(int cx, int cz) {
+		return ((long)cx << 32) | (cz & 0xffffffffL);
+	}
+
+	private static class Grid {
+		final List<QTInfo> zones = new ArrayList<QTInfo>();
+		/* Indexes into zones of those covering each cell */
+		final Map<Long, int[]> cells = new HashMap<Long, int[]>();
+		/* Indexes of zones too big to list cell by cell */
+		final List<Integer> large = new ArrayList<Integer>();
+		/* Lookup each zone was last measured in, so zones in several cells are measured once */
+		int[] seen = new int[0];
+		int lookup = 0;
+
+		void add(QTInfo zone) {
+			int i = zones.size();
+			zones.add(zone);
+			int minX = cell(zone.getMinX());
+			int maxX = cell(zone.getMaxX());
+			int minZ = cell(zone.getMinZ());
+			int maxZ = cell(zone.getMaxZ());
+			if((long)(maxX - minX + 1) * (maxZ - minZ + 1) > MAX_CELLS) {
+				large.add(i);
+				return;
+			}
+			for(int cx = minX; cx <= maxX; cx++) {
+				for(int cz = minZ; cz <= maxZ; cz++) {
+					long k = key(cx, cz);
+					int[] in = cells.get(k);
+					if(in == null) {
+						in = new int[] { i };
+					} else {
+						int[] grown = new int[in.length + 1];
+						System.arraycopy(in, 0, grown, 0, in.length);
+						grown[in.length] = i;
+						in = grown;
+					}
+					cells.put(k, in);
+				}
+			}
+		}
+
+		double distanceTo(double x, double y, double z) {
+			if(seen.length != zones.size()) {
+				seen = new int[zones.size()];
+			}
+			lookup++;
+			double nearest = Double.POSITIVE_INFINITY;
+			for(int i : large) {
+				nearest = Math.min(nearest, measure(i, x, y, z));
+			}
+			int cx = cell(x);
+			int cz = cell(z);
+			for(int r = 0; r <= MAX_RINGS; r++) {
+				if(nearest == 0) {
+					break;
+				}
+				for(int dx = -r; dx <= r; dx++) {
+					/* Only the edge of the square is new in this ring */
+					int step = (dx == -r || dx == r) ? 1 : 2 * r;
+					for(int dz = -r; dz <= r; dz += Math.max(1, step)) {
+						int[] in = cells.get(key(cx + dx, cz + dz));
+						if(in == null) {
+							continue;
+						}
+						for(int i : in) {
+							nearest = Math.min(nearest, measure(i, x, y, z));
+						}
+					}
+				}
+				/* Any zone not seen yet is at least r whole cells away */
+				double bound = (double)r * CELL;
+				if(nearest <= bound * bound) {
+					break;
+				}
+				if(r == MAX_RINGS) {
+					nearest = Math.min(nearest, bound * bound);
+				}
+			}
+			return Math.sqrt(nearest);
+		}
+
+		/* Squared distance to zone i, or infinity if it was already measured this lookup */
+		private double measure(int i, double x, double y, double z) {
+			if(seen[i] == lookup) {
+				return Double.POSITIVE_INFINITY;
+			}
+			seen[i] = lookup;
+			QTInfo zone = zones.get(i);
+			double dx = Math.max(0, Math.max(zone.getMinX() - x, x - zone.getMaxX()));
+			double dy = Math.max(0, Math.max(zone.getMinY() - y, y - zone.getMaxY()));
+			double dz = Math.max(0, Math.max(zone.getMinZ() - z, z - zone.getMaxZ()));
+			return dx * dx + dy * dy + dz * dz;
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package com.live.toadbomb.QuickTravel;
+
+import org.bukkit.entity.Player;
+
+/* Checks QT zones for a rotating slice of the online players each tick,
+ * used instead of PlayerMoveEvent when zone-scan-mode is "scheduled".
+ * At least one player is checked per run, then players are checked until
+ * the time budget is spent, carrying on from there on the next tick. */
+public class QTZoneScanner implements Runnable {
+	private final QuickTravel plugin;
+	private final long budget;
+	private int next = 0;
+
+	public QTZoneScanner(QuickTravel plugin, long budgetNanos) {
+		this.plugin = plugin;
+		this.budget = budgetNanos;
+	}
+
+	public void run() {
+		Player[] online = plugin.getServer().getOnlinePlayers();
+		if(online.length == 0) {
+			return;
+		}
+		long start = System.nanoTime();
+		for(int n = 0; n < online.length; n++) {
+			if(next >= online.length) {
+				next = 0;
+			}
+			plugin.updatePlayerZone(online[next], false);
+			next++;
+			if(System.nanoTime() - start >= budget) {
+				break;
+			}
+		}
+	}
+}
@@ -4,8 +4,13 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -13,7 +18,6 @@ import org.bukkit.ChatColor;
 import org.bukkit.Effect;
 import org.bukkit.Location;
 import org.bukkit.Material;
-import org.bukkit.Server;
 import org.bukkit.World;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
@@ -23,15 +27,38 @@ import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerLoginEvent;
+import org.bukkit.event.player.PlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.PluginManager;
+import org.bukkit.plugin.ServicePriority;
 import org.bukkit.plugin.java.JavaPlugin;
 
 public class QuickTravel extends JavaPlugin implements Listener {
 	public static QuickTravel plugin;
 	private static final Logger logger = Logger.getLogger("Minecraft");
 	private static final String LOG_PREFIX = "[QuickTravel] ";
+	/* Settings only read in onEnable, which /qt reload cannot apply */
+	private static final String[] RESTART_KEYS = {
+		"enable-economy", "local-economy", "local-economy-starting-balance", "local-economy-latency-ms",
+		"async-economy", "async-economy-timeout-ms", "audit-log", "audit-log-buffer", "audit-log-rotate-kb", "audit-log-keep",
+		"discovery-cache-size", "discovery-index-save-seconds", "permission-cache-seconds", "price-quote-seconds",
+		"route-stats", "route-stats-hours", "route-stats-save-seconds",
+		"chunk-retention", "chunk-retention-destinations", "chunk-retention-per-world", "chunk-retention-max-chunks",
+		"chunk-retention-radius", "chunk-retention-interval-seconds", "chunk-retention-loads-per-tick",
+		"predictive-preload", "predictive-preload-destinations", "predictive-preload-loads-per-tick",
+		"zone-scan-mode", "zone-scan-budget-micros", "watch-files", "watch-interval-seconds",
+		"load-shedding", "load-shedding-reduce-mspt", "load-shedding-minimal-mspt", "load-shedding-recover-ticks",
+		"safety-cache", "safety-cache-seconds", "timer-wheel-slots",
+		"warmup-seconds", "warmup-cancel-on-move", "warmup-cancel-on-damage", "cooldown-seconds", "destination-cooldown-seconds",
+		"admission-queue", "admission-per-tick", "admission-budget-micros", "admission-max-wait-ticks",
+		"parallel-list", "parallel-list-threads", "async-commands"
+	};
 	public static boolean economyEnabled;
 	
 	Plugin Vault;
@@ -51,8 +78,88 @@ public class QuickTravel extends JavaPlugin implements Listener {
 	protected FileConfiguration config;
 	private File locationsFile = null;
 	private FileConfiguration locations = null;
+	private QTRegistry registry = new QTRegistry(this);
+	private QTRouter router = new QTRouter(this);
+	private QTZoneIndex zoneIndex = new QTZoneIndex(this);
+	private QTNearIndex nearIndex = new QTNearIndex(this);
+	private QTPermissions permissions = null;
+	private QTReloader reloader = null;
+	/* Open /qt group invites, by invited player id */
+	private Map<Integer, QTGroupTravel> groupInvites = new HashMap<Integer, QTGroupTravel>();
+	/* Id of each online player, so hot paths skip the locked id table */
+	private final Map<Player, Integer> playerIds = new ConcurrentHashMap<Player, Integer>();
+	/* When each player could next have reached a QT, in System.nanoTime() */
+	private Map<Integer, Long> zoneCheckAfter = new HashMap<Integer, Long>();
+	/* The QT each player is standing in, kept up to date by updatePlayerZone */
+	private Map<Integer, String> currentQT = new HashMap<Integer, String>();
+	/* Loads likely destinations when players enter a QT, null when turned off */
+	private QTPreloader preloader = null;
+	/* Keeps the busiest destinations' chunks loaded, null when turned off */
+	private QTChunkRetention chunkRetention = null;
+	/* Trips per route, null when turned off */
+	private QTRouteStats routeStats = null;
+	/* Charges and refunds, null when turned off */
+	private QTAuditLog auditLog = null;
+	/* Prices recently shown to each player by the QT lists */
+	private QTQuotes quotes = null;
+	/* Economy calls made off the main thread, null when turned off */
+	private QTEconomy asyncEconomy = null;
+	/* Travels still making their way through QTTravel or QTGroupTravel, by player id */
+	private Map<Integer, Object> travelling = new HashMap<Integer, Object>();
+	/* Destinations checkSafe has already made safe, null when turned off */
+	private QTSafetyCache safetyCache = null;
+	/* Runs warmups and cooldowns from one repeating task */
+	private QTTimingWheel timers = null;
+	/* Travel warmups and cooldowns, null when there are none */
+	private QTCooldowns cooldowns = null;
+	/* Limits how many travels teleport each tick, null when turned off */
+	private QTAdmission admission = null;
+	/* Decides how much optional work to skip while the server is struggling, null when turned off */
+	private QTLoadMonitor loadMonitor = null;
+	/* Which QTs each online player has discovered */
+	private QTDiscoveries discoveries = null;
+	/* Runs the list commands off the main thread, null when turned off */
+	private QTAsyncCommands asyncCommands = null;
+	/* Evaluates /qt for large networks on several threads, null when turned off */
+	private QTParallelList parallelList = null;
 		
 	public void onDisable() {
+		getServer().getServicesManager().unregisterAll(this);
+		/* Travels waiting on a warmup, the queue or a preload would lose what they reserved */
+		for(Object t : new HashSet<Object>(travelling.values())) {
+			if(t instanceof QTTravel) {
+				((QTTravel)t).cancel("QuickTravel is shutting down.");
+			} else if(t instanceof QTGroupTravel) {
+				((QTGroupTravel)t).cancel("QuickTravel is shutting down.");
+			}
+		}
+		if(routeStats != null) {
+			routeStats.save(true);
+			routeStats = null;
+		}
+		if(discoveries != null) {
+			discoveries.shutdown();
+		}
+		if(permissions != null) {
+			permissions.unregister();
+		}
+		if(asyncCommands != null) {
+			asyncCommands.shutdown();
+			asyncCommands = null;
+		}
+		if(parallelList != null) {
+			parallelList.shutdown();
+			parallelList = null;
+		}
+		if(asyncEconomy != null) {
+			asyncEconomy.shutdown();
+			asyncEconomy = null;
+		}
+		if(auditLog != null) {
+			/* After the economy, so its last refunds are recorded */
+			auditLog.shutdown();
+			auditLog = null;
+		}
 		info("Has been disabled.");
 	}
 	
@@ -74,6 +181,62 @@ public class QuickTravel extends JavaPlugin implements Listener {
 		this.getConfig().addDefault("multiworld-multiplier", 1.2);
 		this.getConfig().addDefault("price-multiplier", 500);
 		this.getConfig().addDefault("free-from-qts", false);
+		this.getConfig().addDefault("zone-scan-mode", "move");
+		this.getConfig().addDefault("zone-scan-budget-micros", 500);
+		this.getConfig().addDefault("max-player-speed", 4.0);
+		this.getConfig().addDefault("sort-list-by-distance", false);
+		this.getConfig().addDefault("watch-files", false);
+		this.getConfig().addDefault("watch-interval-seconds", 5);
+		this.getConfig().addDefault("permission-cache-seconds", 30);
+		this.getConfig().addDefault("price-quote-seconds", 30);
+		this.getConfig().addDefault("load-shedding", false);
+		this.getConfig().addDefault("load-shedding-reduce-mspt", 55);
+		this.getConfig().addDefault("load-shedding-minimal-mspt", 80);
+		this.getConfig().addDefault("load-shedding-recover-ticks", 100);
+		this.getConfig().addDefault("load-shedding-move-check-ticks", 5);
+		this.getConfig().addDefault("discovery-cache-size", 256);
+		this.getConfig().addDefault("discovery-index-save-seconds", 300);
+		this.getConfig().addDefault("async-commands", false);
+		this.getConfig().addDefault("parallel-list", false);
+		this.getConfig().addDefault("parallel-list-threshold", 256);
+		this.getConfig().addDefault("parallel-list-threads", 0);
+		this.getConfig().addDefault("async-economy", false);
+		this.getConfig().addDefault("async-economy-timeout-ms", 2000);
+		this.getConfig().addDefault("local-economy", false);
+		this.getConfig().addDefault("local-economy-starting-balance", 1000);
+		this.getConfig().addDefault("local-economy-latency-ms", 0);
+		this.getConfig().addDefault("audit-log", false);
+		this.getConfig().addDefault("audit-log-buffer", 4096);
+		this.getConfig().addDefault("audit-log-rotate-kb", 1024);
+		this.getConfig().addDefault("audit-log-keep", 10);
+		this.getConfig().addDefault("route-stats", false);
+		this.getConfig().addDefault("route-stats-hours", 24);
+		this.getConfig().addDefault("route-stats-save-seconds", 300);
+		this.getConfig().addDefault("chunk-retention", false);
+		this.getConfig().addDefault("chunk-retention-destinations", 10);
+		this.getConfig().addDefault("chunk-retention-per-world", 5);
+		this.getConfig().addDefault("chunk-retention-max-chunks", 90);
+		this.getConfig().addDefault("chunk-retention-radius", 1);
+		this.getConfig().addDefault("chunk-retention-interval-seconds", 60);
+		this.getConfig().addDefault("chunk-retention-loads-per-tick", 1);
+		this.getConfig().addDefault("predictive-preload", false);
+		this.getConfig().addDefault("predictive-preload-destinations", 3);
+		this.getConfig().addDefault("predictive-preload-loads-per-tick", 2);
+		this.getConfig().addDefault("group-travel-radius", 8);
+		this.getConfig().addDefault("group-travel-max-size", 10);
+		this.getConfig().addDefault("group-travel-invite-seconds", 30);
+		this.getConfig().addDefault("admission-queue", false);
+		this.getConfig().addDefault("admission-per-tick", 4);
+		this.getConfig().addDefault("admission-budget-micros", 10000);
+		this.getConfig().addDefault("admission-max-wait-ticks", 100);
+		this.getConfig().addDefault("warmup-seconds", 0);
+		this.getConfig().addDefault("warmup-cancel-on-move", true);
+		this.getConfig().addDefault("warmup-cancel-on-damage", true);
+		this.getConfig().addDefault("cooldown-seconds", 0);
+		this.getConfig().addDefault("destination-cooldown-seconds", 0);
+		this.getConfig().addDefault("timer-wheel-slots", 512);
+		this.getConfig().addDefault("safety-cache", false);
+		this.getConfig().addDefault("safety-cache-seconds", 120);
 		this.getConfig().options().copyDefaults(true);
 		if(getConfig().get("radius-when-only-primary-set") != null) { 
 			this.getConfig().set("radius", getConfig().getDouble("radius-when-only-primary-set"));
@@ -91,7 +254,12 @@ public class QuickTravel extends JavaPlugin implements Listener {
 		
 		PluginManager pm = getServer().getPluginManager();
 		/* Check if Vault is required */
-		if(getConfig().getBoolean("enable-economy") == true) {
+		if(getConfig().getBoolean("enable-economy") == true && getConfig().getBoolean("local-economy") == true) {
+			/* In memory stand-in, for testing without an economy plugin */
+			EcoSetup.economy = new QTLocalEconomy(getConfig().getDouble("local-economy-starting-balance"), getConfig().getLong("local-economy-latency-ms"));
+			info("Using " + EcoSetup.economy.getName() + " for economy.");
+			economyEnabled = true;
+		} else if(getConfig().getBoolean("enable-economy") == true) {
 			/* Get Vault */
 			Vault = pm.getPlugin("Vault");
 			if(Vault == null) {
@@ -112,47 +280,254 @@ public class QuickTravel extends JavaPlugin implements Listener {
 		} else {
 			info("Economy is disabled.");
 		}
+		if(economyEnabled == true && getConfig().getBoolean("async-economy") == true) {
+			/* Talk to the economy from a background thread */
+			asyncEconomy = new QTEconomy(this, EcoSetup.economy, getConfig().getLong("async-economy-timeout-ms"));
+		}
+		if(economyEnabled == true && getConfig().getBoolean("audit-log") == true) {
+			/* Record charges and refunds in audit/ */
+			auditLog = new QTAuditLog(this, getConfig().getInt("audit-log-buffer"), getConfig().getLong("audit-log-rotate-kb") * 1024, getConfig().getInt("audit-log-keep"));
+			auditLog.start();
+		}
+		
+		/* Discoveries live in players/, one file per player */
+		discoveries = new QTDiscoveries(this, getConfig().getInt("discovery-cache-size"));
+		if(discoveries.migrate(getLocations())) {
+			saveLocations();
+		}
+		for(Player p : getServer().getOnlinePlayers()) {
+			discoveries.join(p);
+		}
+		long indexInterval = Math.max(1, getConfig().getLong("discovery-index-save-seconds")) * 20;
+		getServer().getScheduler().scheduleSyncRepeatingTask(this, new Runnable() {
+			public void run() {
+				discoveries.saveIndex();
+			}
+		}, indexInterval, indexInterval);
+		getServer().getScheduler().scheduleSyncRepeatingTask(this, new Runnable() {
+			public void run() {
+				discoveries.evictPrefetched();
+			}
+		}, 1200, 1200);
+		
+		/* Publish QT data for other plugins */
+		registry.update();
+		discoveries.retainQTs(registry.getSnapshot());
+		permissions = new QTPermissions(this, getConfig().getLong("permission-cache-seconds") * 1000);
+		quotes = new QTQuotes(getConfig().getLong("price-quote-seconds") * 1000);
+		if(getConfig().getBoolean("route-stats") == true) {
+			/* Trips per route, needs the QTs loaded to read route-stats.dat */
+			routeStats = new QTRouteStats(this, getConfig().getInt("route-stats-hours"));
+			routeStats.load();
+			long statsInterval = Math.max(1, getConfig().getLong("route-stats-save-seconds")) * 20;
+			getServer().getScheduler().scheduleSyncRepeatingTask(this, new Runnable() {
+				public void run() {
+					routeStats.save(false);
+				}
+			}, statsInterval, statsInterval);
+			if(getConfig().getBoolean("chunk-retention") == true) {
+				/* Keep the busiest destinations loaded, chosen from the route stats */
+				chunkRetention = new QTChunkRetention(this, getConfig().getInt("chunk-retention-destinations"), getConfig().getInt("chunk-retention-per-world"), getConfig().getInt("chunk-retention-max-chunks"), getConfig().getInt("chunk-retention-radius"), getConfig().getInt("chunk-retention-loads-per-tick"));
+				getServer().getPluginManager().registerEvents(chunkRetention, this);
+				long retentionInterval = Math.max(1, getConfig().getLong("chunk-retention-interval-seconds")) * 20;
+				getServer().getScheduler().scheduleSyncRepeatingTask(this, new Runnable() {
+					public void run() {
+						chunkRetention.recompute();
+					}
+				}, 1, retentionInterval);
+				getServer().getScheduler().scheduleSyncRepeatingTask(this, chunkRetention, 1, 1);
+			}
+		}
+		if(getConfig().getBoolean("predictive-preload") == true) {
+			/* Load likely destinations as players walk into a QT */
+			preloader = new QTPreloader(this, getConfig().getInt("predictive-preload-destinations"), getConfig().getInt("predictive-preload-loads-per-tick"));
+			getServer().getPluginManager().registerEvents(preloader, this);
+			getServer().getScheduler().scheduleSyncRepeatingTask(this, preloader, 1, 1);
+		}
+		getServer().getServicesManager().register(QuickTravelService.class, registry, this, ServicePriority.Normal);
 		
 		this.getServer().getPluginManager().registerEvents(this, this);
+		if(getConfig().getString("zone-scan-mode").equalsIgnoreCase("scheduled")) {
+			/* Check QT zones from a scheduled task instead of on every move */
+			PlayerMoveEvent.getHandlerList().unregister((Listener)this);
+			long budget = getConfig().getLong("zone-scan-budget-micros") * 1000;
+			getServer().getScheduler().scheduleSyncRepeatingTask(this, new QTZoneScanner(this, budget), 1, 1);
+			info("Scanning QT zones each tick, budget " + getConfig().getLong("zone-scan-budget-micros") + "us.");
+		}
+		reloader = new QTReloader(this);
+		if(getConfig().getBoolean("watch-files") == true) {
+			/* Reload locations.yml and config.yml when they are edited */
+			long interval = Math.max(1, getConfig().getLong("watch-interval-seconds")) * 20;
+			getServer().getScheduler().scheduleAsyncRepeatingTask(this, reloader, interval, interval);
+		}
+		if(getConfig().getBoolean("load-shedding") == true) {
+			loadMonitor = new QTLoadMonitor(getConfig().getDouble("load-shedding-reduce-mspt"), getConfig().getDouble("load-shedding-minimal-mspt"), getConfig().getInt("load-shedding-recover-ticks"));
+			getServer().getScheduler().scheduleSyncRepeatingTask(this, loadMonitor, 1, 1);
+		}
+		if(getConfig().getBoolean("safety-cache") == true) {
+			/* Skip checkSafe for destinations already made safe, until a block near them changes */
+			safetyCache = new QTSafetyCache(getConfig().getLong("safety-cache-seconds") * 1000);
+			getServer().getPluginManager().registerEvents(safetyCache, this);
+		}
+		/* Warmups and cooldowns share one timing wheel driven each tick */
+		timers = new QTTimingWheel(getConfig().getInt("timer-wheel-slots"));
+		getServer().getScheduler().scheduleSyncRepeatingTask(this, timers, 1, 1);
+		if(getConfig().getDouble("warmup-seconds") > 0 || getConfig().getDouble("cooldown-seconds") > 0 || getConfig().getDouble("destination-cooldown-seconds") > 0) {
+			cooldowns = new QTCooldowns(this, timers, Math.round(getConfig().getDouble("warmup-seconds") * 20), getConfig().getBoolean("warmup-cancel-on-move"), getConfig().getBoolean("warmup-cancel-on-damage"), Math.round(getConfig().getDouble("cooldown-seconds") * 20), Math.round(getConfig().getDouble("destination-cooldown-seconds") * 20));
+			getServer().getPluginManager().registerEvents(cooldowns, this);
+		}
+		if(getConfig().getBoolean("admission-queue") == true) {
+			/* Let only a few travels teleport each tick */
+			admission = new QTAdmission(getConfig().getInt("admission-per-tick"), getConfig().getLong("admission-budget-micros") * 1000, getConfig().getLong("admission-max-wait-ticks"));
+			getServer().getScheduler().scheduleSyncRepeatingTask(this, admission, 1, 1);
+		}
+		if(getConfig().getBoolean("parallel-list") == true) {
+			parallelList = new QTParallelList(getConfig().getInt("parallel-list-threads"));
+		}
+		if(getConfig().getBoolean("async-commands") == true || parallelList != null) {
+			asyncCommands = new QTAsyncCommands(this);
+		}
 		
 		info("v" + this.getDescription().getVersion() + " is enabled.");
 	}
 	
 	@EventHandler(priority = EventPriority.LOW)
 	public void onPlayerMove(PlayerMoveEvent event) {
-		Player p = event.getPlayer();
+		updatePlayerZone(event.getPlayer(), false);
+	}
+	
+	/* QTLoadMonitor level, NORMAL when load shedding is turned off */
+	public int getLoadLevel() {
+		if(loadMonitor == null) {
+			return QTLoadMonitor.NORMAL;
+		}
+		return loadMonitor.getLevel();
+	}
+	
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onPlayerTeleport(PlayerTeleportEvent event) {
+		/* Teleports can cover any distance, check again straight away */
+		zoneCheckAfter.remove(getPlayerId(event.getPlayer()));
+	}
+	
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onPlayerChangedWorld(PlayerChangedWorldEvent event) {
+		zoneCheckAfter.remove(getPlayerId(event.getPlayer()));
+		/* Permissions can be per world */
+		permissions.invalidate(event.getPlayer());
+	}
+	
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onPlayerPreLogin(PlayerPreLoginEvent event) {
+		/* Runs on the login thread, read their discoveries before they are needed */
+		if(event.getResult() == PlayerPreLoginEvent.Result.ALLOWED) {
+			discoveries.prefetch(event.getName());
+		}
+	}
+	
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onPlayerLogin(PlayerLoginEvent event) {
+		if(event.getResult() != PlayerLoginEvent.Result.ALLOWED) {
+			/* They will not be joining, so the prefetch is not needed */
+			discoveries.cancelPrefetch(event.getPlayer().getName());
+		}
+	}
+	
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onPlayerJoin(PlayerJoinEvent event) {
+		permissions.invalidate(event.getPlayer());
+		discoveries.join(event.getPlayer());
+	}
+	
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onPlayerQuit(PlayerQuitEvent event) {
+		zoneCheckAfter.remove(getPlayerId(event.getPlayer()));
+		groupInvites.remove(getPlayerId(event.getPlayer()));
+		permissions.invalidate(event.getPlayer());
+		quotes.invalidate(getPlayerId(event.getPlayer()));
+		discoveries.quit(event.getPlayer());
+		setCurrentQT(event.getPlayer(), null);
+		final Player p = event.getPlayer();
+		getServer().getScheduler().scheduleSyncDelayedTask(this, new Runnable() {
+			public void run() {
+				/* A tick later, once other quit handlers are done with it */
+				playerIds.remove(p);
+			}
+		});
+	}
+	
+	/* Checks whether p is standing in a QT and handles discovery.
+	 * Unless force is set, checks may be skipped while p is far from any QT or the server is overloaded. */
+	public void updatePlayerZone(Player p, boolean force) {
+		long now = System.nanoTime();
+		int id = getPlayerId(p);
+		Long after = zoneCheckAfter.get(id);
+		if(force == false && after != null && now - after < 0) {
+			/* Too far from any QT to have reached one yet */
+			return;
+		}
+		double d = zoneIndex.distanceTo(p.getLocation());
+		if(d > 0) {
+			/* Skip checks until p could have covered d at full speed, 50ms per tick */
+			double ticks = Math.min(d / getConfig().getDouble("max-player-speed"), 6000);
+			zoneCheckAfter.put(id, now + (long)(ticks * 50000000L));
+			setCurrentQT(p, null);
+			return;
+		}
+		int load = getLoadLevel();
+		if(load != QTLoadMonitor.NORMAL) {
+			/* Check players in or near a QT less often, four times less again when overloaded */
+			long ticks = getConfig().getLong("load-shedding-move-check-ticks");
+			if(load == QTLoadMonitor.MINIMAL) {
+				ticks = ticks * 4;
+			}
+			zoneCheckAfter.put(id, now + ticks * 50000000L);
+		} else {
+			zoneCheckAfter.remove(id);
+		}
 		String qt = checkPlayerQT(p);
+		setCurrentQT(p, qt);
 		if(qt != null && playerHasPermission(p, qt)) {
-			boolean discovered = false;
-			@SuppressWarnings("unchecked")
-			List<Object> dList = (List<Object>) getLocations().getList("locations." + getLocation(qt) + ".discovered-by");
-			if(dList != null) {
-				ListIterator<Object> li = dList.listIterator();
-				while(li.hasNext()) {
-					String v = li.next().toString();
-					if(v.equalsIgnoreCase(p.getName())) {
-						discovered = true;
-						break;
-					}
-				}
-			}
-			if(discovered == false) {
-				if(dList != null) {
-					dList.add(p.getName());
-				} else {
-					List<Object> newDList = new ArrayList<Object>();
-					newDList.add(p.getName());
-					getLocations().set("locations." + getLocation(qt) + ".discovered-by", newDList);
-				}
-				this.saveLocations();
+			if(discoveries.discover(p, getLocation(qt))) {
 				p.sendMessage(ChatColor.BLUE + "You have discovered " + ChatColor.AQUA + qt + ChatColor.BLUE + "!");
-				p.sendMessage("Type " + ChatColor.GOLD + "/qt" + ChatColor.WHITE + " for QuickTravel.");
+				if(load == QTLoadMonitor.NORMAL) {
+					p.sendMessage("Type " + ChatColor.GOLD + "/qt" + ChatColor.WHITE + " for QuickTravel.");
+				}
 			}
 		}
 	}
 	
+	/* Records the QT p is standing in and fires QTLeaveEvent/QTEnterEvent on changes */
+	private void setCurrentQT(Player p, String qt) {
+		int id = getPlayerId(p);
+		String old = currentQT.get(id);
+		if(old == null ? qt == null : old.equals(qt)) {
+			return;
+		}
+		if(qt != null) {
+			currentQT.put(id, qt);
+		} else {
+			currentQT.remove(id);
+		}
+		if(old != null) {
+			getServer().getPluginManager().callEvent(new QTLeaveEvent(p, old));
+		}
+		if(qt != null) {
+			getServer().getPluginManager().callEvent(new QTEnterEvent(p, qt));
+		}
+	}
+	
+	/* The QT p is standing in, or null. Does not scan the QTs, see updatePlayerZone */
+	public String getCurrentQT(Player p) {
+		return currentQT.get(getPlayerId(p));
+	}
+	
 	public boolean onCommand(CommandSender sender, Command cmd, String commandLabel, String[] args) {
 		if(cmd.getName().equalsIgnoreCase("qt")) {
+			if(sender instanceof Player) {
+				/* Bring the player's QT up to date once, everything below reads it */
+				updatePlayerZone((Player)sender, true);
+			}
 			/* Command Handling */
 			if(args.length == 0) {
 				/* "/qt" passed
@@ -368,6 +743,89 @@ public class QuickTravel extends JavaPlugin implements Listener {
 					QTList(sender, 1, false);
 					return true;
 				}
+			} else if(args[0].equalsIgnoreCase("route")) {
+				/* "/qt route" passed
+				 * Make sure is not being run from console */
+				if(!(sender instanceof Player)) {
+					sender.sendMessage(ChatColor.RED + "You must be a player!");
+					return true;
+				}
+				QTRoute(sender, args);
+				return true;
+			} else if(args[0].equalsIgnoreCase("reload")) {
+				/* "/qt reload" passed */
+				if(sender.hasPermission("qt.admin.reload")) {
+					sender.sendMessage("Reloading QuickTravel...");
+					reloader.reload(sender);
+					return true;
+				} else {
+					/* Not authorised */
+					sender.sendMessage("[" + ChatColor.RED + "Error" + ChatColor.WHITE + "] We do not know " + ChatColor.AQUA + args[0] + ChatColor.WHITE + "!");
+					QTList(sender, 1, false);
+					return true;
+				}
+			} else if(args[0].equalsIgnoreCase("purge")) {
+				/* "/qt purge" passed */
+				if(sender.hasPermission("qt.admin.purge")) {
+					QTPurge(sender, args);
+					return true;
+				} else {
+					/* Not authorised */
+					sender.sendMessage("[" + ChatColor.RED + "Error" + ChatColor.WHITE + "] We do not know " + ChatColor.AQUA + args[0] + ChatColor.WHITE + "!");
+					QTList(sender, 1, false);
+					return true;
+				}
+			} else if(args[0].equalsIgnoreCase("near")) {
+				/* "/qt near" passed
+				 * Make sure is not being run from console */
+				if(!(sender instanceof Player)) {
+					sender.sendMessage(ChatColor.RED + "You must be a player!");
+					return true;
+				}
+				QTNear(sender, args);
+				return true;
+			} else if(args[0].equalsIgnoreCase("stats")) {
+				/* "/qt stats" passed */
+				if(sender.hasPermission("qt.admin.stats")) {
+					QTStats(sender, args);
+					return true;
+				} else {
+					/* Not authorised */
+					sender.sendMessage("[" + ChatColor.RED + "Error" + ChatColor.WHITE + "] We do not know " + ChatColor.AQUA + args[0] + ChatColor.WHITE + "!");
+					QTList(sender, 1, false);
+					return true;
+				}
+			} else if(args[0].equalsIgnoreCase("group")) {
+				/* "/qt group" passed
+				 * Make sure is not being run from console */
+				if(!(sender instanceof Player)) {
+					sender.sendMessage(ChatColor.RED + "You must be a player!");
+					return true;
+				}
+				if(args.length == 2 && args[1].equalsIgnoreCase("accept") && groupInvites.containsKey(getPlayerId((Player)sender))) {
+					/* Answering an invite only needs qt.user, checked as they were invited */
+					QTGroupAccept(sender);
+					return true;
+				} else if(sender.hasPermission("qt.group")) {
+					QTGroup(sender, args);
+					return true;
+				} else {
+					/* Not authorised */
+					sender.sendMessage("[" + ChatColor.RED + "Error" + ChatColor.WHITE + "] We do not know " + ChatColor.AQUA + args[0] + ChatColor.WHITE + "!");
+					QTList(sender, 1, false);
+					return true;
+				}
+			} else if(args[0].equalsIgnoreCase("found")) {
+				/* "/qt found" passed */
+				if(sender.hasPermission("qt.admin.list")) {
+					QTFound(sender, args);
+					return true;
+				} else {
+					/* Not authorised */
+					sender.sendMessage("[" + ChatColor.RED + "Error" + ChatColor.WHITE + "] We do not know " + ChatColor.AQUA + args[0] + ChatColor.WHITE + "!");
+					QTList(sender, 1, false);
+					return true;
+				}
 			} else if(args.length == 1) {
 				/* "/qt" passed with 1 argument 
 				 * Make sure is not being run from console */
@@ -390,8 +848,7 @@ public class QuickTravel extends JavaPlugin implements Listener {
 						/* QT is valid, gather info and
 						 * prepare to send QT */
 						Player p = (Player)sender;
-						String qt = checkPlayerQT(sender);
-						double tax = getConfig().getDouble("multiworld-tax");
+						String qt = getCurrentQT(p);
 						if(qt != null) {
 							/* Player is at a QT location */
 							if(qt.equalsIgnoreCase(args[0])) {
@@ -399,209 +856,28 @@ public class QuickTravel extends JavaPlugin implements Listener {
 								sender.sendMessage(ChatColor.BLUE + "You are already at " + ChatColor.AQUA + qt + ChatColor.BLUE + "!");
 								return true;
 							}
-							/* Check economy */
-							double c = 0;
-							if(economyEnabled == true) {
-								/* Economy is enabled */
-								if((isFree(getLocation(args[0])) && getLocations().get("locations." + getLocation(args[0]) + ".free") != null) || (isFree(getLocation(qt)) && getLocations().get("locations." + getLocation(qt) + ".free") != null)) {
-									/* One or both of these QTs are free */
-									if(getLocations().getString("locations." + getLocation(qt) + ".world").equalsIgnoreCase(getLocations().getString("locations." + getLocation(args[0]) + ".world"))) {
-										/* Send QT */
-										QT(sender, args[0], 0);
-		                                return true;
-									} else {
-										/* Charge multiworld tax
-										 * Check player has enough money */
-										c = c + tax;
-										if(EcoSetup.economy.has(p.getName(), c)) {
-											/* Withdraw money from player */
-			                            	if(EcoSetup.economy.hasBankSupport() && getConfig().getBoolean("withdraw-from-player-not-bank") == false) {
-			                            		EcoSetup.economy.bankWithdraw(p.getName(), c);
-			                            	} else {
-			                            		EcoSetup.economy.withdrawPlayer(p.getName(), c);
-			                            	}
-			                            	/* Send QT */
-			                            	QT(sender, args[0], c);
-			                                return true;
-			                            } else {
-			                            	/* Player does not have enough money */
-			                                sender.sendMessage("You do not have enough money to go there.");
-			                                return true;
-										}
-									}
-								} else {
-									if(getLocations().get("locations." + getLocation(args[0]) + ".charge-from." + getLocation(qt)) != null) {
-										/* Price has been manually set for QT */
-										c = getLocations().getDouble("locations." + getLocation(args[0]) + ".charge-from." + getLocation(qt));
-										if(!getLocations().getString("locations." + getLocation(qt) + ".world").equalsIgnoreCase(getLocations().getString("locations." + getLocation(args[0]) + ".world"))) {
-											c = c + tax;
-										}
-										if(c > 0) {
-											/* Check player has enough money */
-											if(EcoSetup.economy.has(p.getName(), c)) {
-												/* Withdraw money from player */
-				                            	if(EcoSetup.economy.hasBankSupport() && getConfig().getBoolean("withdraw-from-player-not-bank") == false) {
-				                            		EcoSetup.economy.bankWithdraw(p.getName(), c);
-				                            	} else {
-				                            		EcoSetup.economy.withdrawPlayer(p.getName(), c);
-				                            	}
-				                            	/* Send QT */
-				                            	QT(sender, args[0], c);
-				                                return true;
-				                            } else {
-				                            	/* Player does not have enough money */
-				                                sender.sendMessage("You do not have enough money to go there.");
-				                                return true;
-											}
-										} else {
-											/* Send QT */
-											QT(sender, args[0], c);
-			                                return true;
-										}
-									} else {
-										/* No custom price set, check whether it should be free
-										 * or if we should set the price */
-										if((getConfig().getBoolean("qt-from-anywhere") == true && getConfig().getBoolean("free-from-qts") == false) || (getConfig().getBoolean("qt-from-anywhere") == false && getConfig().getBoolean("free-by-default") == false)) {
-											/* QT should not be free, calculate price */
-											c = calculatePrice(getLocation(qt), getLocation(args[0]));
-											if(!getLocations().getString("locations." + getLocation(qt) + ".world").equalsIgnoreCase(getLocations().getString("locations." + getLocation(args[0]) + ".world"))) {
-												c = c + tax;
-											}
-											/* Check player has enough money */
-											if(EcoSetup.economy.has(p.getName(), c)) {
-												/* Withdraw money from player */
-				                            	if(EcoSetup.economy.hasBankSupport() && getConfig().getBoolean("withdraw-from-player-not-bank") == false) {
-				                            		EcoSetup.economy.bankWithdraw(p.getName(), c);
-				                            	} else {
-				                            		EcoSetup.economy.withdrawPlayer(p.getName(), c);
-				                            	}
-				                            	/* Send QT */
-				                            	QT(sender, args[0], c);
-				                                return true;
-				                            } else {
-				                            	/* Player does not have enough money */
-				                                sender.sendMessage("You do not have enough money to go there.");
-				                                return true;
-											}
-										} else {
-											/* QT should be free QT */
-											if(getLocations().getString("locations." + getLocation(qt) + ".world").equalsIgnoreCase(getLocations().getString("locations." + getLocation(args[0]) + ".world"))) {
-												/* Send QT */
-												QT(sender, args[0], 0);
-				                                return true;
-											} else {
-												/* Charge multiworld tax
-												 * Check player has enough money */
-												c = c + tax;
-												if(EcoSetup.economy.has(p.getName(), c)) {
-													/* Withdraw money from player */
-					                            	if(EcoSetup.economy.hasBankSupport() && getConfig().getBoolean("withdraw-from-player-not-bank") == false) {
-					                            		EcoSetup.economy.bankWithdraw(p.getName(), c);
-					                            	} else {
-					                            		EcoSetup.economy.withdrawPlayer(p.getName(), c);
-					                            	}
-					                            	/* Send QT */
-					                            	QT(sender, args[0], c);
-					                                return true;
-					                            } else {
-					                            	/* Player does not have enough money */
-					                                sender.sendMessage("You do not have enough money to go there.");
-					                                return true;
-												}
-											}																	
-										}
-									}
-								}
-							} else {
-								/* Economy is disabled, do not charge and send QT */
-								QT(sender, args[0], 0);
-								return true;	
+							Double quoted = getQuote(p, qt, args[0]);
+							if(quoted != null) {
+								/* Charge exactly what the list showed */
+								QT(sender, args[0], quoted);
+								return true;
 							}
+							QTSnapshot snapshot = registry.getSnapshot();
+							QT(sender, args[0], snapshot.getPrice(snapshot.getQT(qt), snapshot.getQT(args[0])));
+							return true;
 						} else if(getConfig().getBoolean("qt-from-anywhere") == true) {
 							/* Player is not at a QT location,
 							 * however QTs are enabled from anywhere */
-							if(economyEnabled == true) {
-								if(getConfig().getBoolean("free-by-default") == false) {
-									/* Economy is enabled
-									 * QTs are not free by default
-									 * Check whether destination is free
-									 * and calculate if not */
-									if(isFree(getLocation(args[0])) && getLocations().get("locations." + getLocation(args[0]) + ".free") != null) {
-										/* QT is free, send */
-										if(p.getWorld().getName().equalsIgnoreCase(getLocations().getString("locations." + getLocation(args[0]) + ".world"))) {
-											/* Send QT */
-											QT(sender, args[0], 0);
-			                                return true;
-										} else {
-											/* Charge multiworld tax
-											 * Check player has enough money */
-											double c = tax;
-											if(EcoSetup.economy.has(p.getName(), c)) {
-												/* Withdraw money from player */
-				                            	if(EcoSetup.economy.hasBankSupport() && getConfig().getBoolean("withdraw-from-player-not-bank") == false) {
-				                            		EcoSetup.economy.bankWithdraw(p.getName(), c);
-				                            	} else {
-				                            		EcoSetup.economy.withdrawPlayer(p.getName(), c);
-				                            	}
-				                            	/* Send QT */
-				                            	QT(sender, args[0], c);
-				                                return true;
-				                            } else {
-				                            	/* Player does not have enough money */
-				                                sender.sendMessage("You do not have enough money to go there.");
-				                                return true;
-											}
-										}
-									} else {
-										double c = calculatePrice(sender, getLocation(args[0]));
-										if(!p.getWorld().getName().equalsIgnoreCase(getLocations().getString("locations." + getLocation(args[0]) + ".world"))) {
-											c = c + tax;
-										}
-										/* Check player has enough money */
-										if(EcoSetup.economy.has(p.getName(), c)) {
-											/* Withdraw money from player */
-			                            	if(EcoSetup.economy.hasBankSupport() && getConfig().getBoolean("withdraw-from-player-not-bank") == false) {
-			                            		EcoSetup.economy.bankWithdraw(p.getName(), c);
-			                            	} else {
-			                            		EcoSetup.economy.withdrawPlayer(p.getName(), c);
-			                            	}
-			                            	/* Send QT */
-			                            	QT(sender, args[0], c);
-			                                return true;
-			                            } else {
-			                            	/* Player does not have enough money */
-			                                sender.sendMessage("You do not have enough money to go there.");
-			                                return true;
-										}
-									}
-								} else {
-									/* No price required */
-									double c = 0;
-									if(!p.getWorld().getName().equalsIgnoreCase(getLocations().getString("locations." + getLocation(args[0]) + ".world"))) {
-										c = c + tax;
-									}
-									/* Check player has enough money */
-									if(EcoSetup.economy.has(p.getName(), c)) {
-										/* Withdraw money from player */
-		                            	if(EcoSetup.economy.hasBankSupport() && getConfig().getBoolean("withdraw-from-player-not-bank") == false) {
-		                            		EcoSetup.economy.bankWithdraw(p.getName(), c);
-		                            	} else {
-		                            		EcoSetup.economy.withdrawPlayer(p.getName(), c);
-		                            	}
-		                            	/* Send QT */
-		                            	QT(sender, args[0], c);
-		                                return true;
-		                            } else {
-		                            	/* Player does not have enough money */
-		                                sender.sendMessage("You do not have enough money to go there.");
-		                                return true;
-									}
-								}
-							} else {
-								/* Economy disabled, send QT */
-								QT(sender, args[0], 0);
+							Double quoted = getQuote(p, null, args[0]);
+							if(quoted != null) {
+								/* Charge exactly what the list showed */
+								QT(sender, args[0], quoted);
 								return true;
 							}
+							QTSnapshot snapshot = registry.getSnapshot();
+							Location loc = p.getLocation();
+							QT(sender, args[0], snapshot.getPrice(p.getWorld().getName(), loc.getX(), loc.getY(), loc.getZ(), snapshot.getQT(args[0])));
+							return true;
 						} else {
 							/* Player is not at a valid location to QT */
 							sender.sendMessage(ChatColor.BLUE + "You are not at a QuickTravel point.");
@@ -622,39 +898,42 @@ public class QuickTravel extends JavaPlugin implements Listener {
 		return false;
 	}
 	
+	/* Sends the player to rQT, charging c, through the QTTravel stages */
 	public void QT(CommandSender sender, String rQT, double c) {
-		if(c > 0) {
-			sender.sendMessage(ChatColor.BLUE + "QuickTravelling to " + ChatColor.AQUA + getLocationName(rQT) + ChatColor.BLUE + " for " + ChatColor.GOLD + EcoSetup.economy.format(c) + ChatColor.BLUE + "...");	
-		} else {
-			sender.sendMessage(ChatColor.BLUE + "QuickTravelling to " + ChatColor.AQUA + getLocationName(rQT) + ChatColor.BLUE + "...");
-		}
-		
 		Player p = (Player)sender;
-		Location loc = p.getLocation();
-		Server s = getServer();
-        World w = s.getWorld(getLocations().getString("locations." + getLocation(rQT) + ".world"));
-        if(getLocations().get("locations." + getLocation(rQT) + ".coords.dest") != null) {
-        	double x = getLocations().getDouble("locations." + getLocation(rQT) + ".coords.dest.x");
-        	double y = getLocations().getDouble("locations." + getLocation(rQT) + ".coords.dest.y");
-        	double z = getLocations().getDouble("locations." + getLocation(rQT) + ".coords.dest.z");
-        	float pitch = getLocations().getInt("locations." + getLocation(rQT) + ".coords.dest.pitch");
-        	float yaw = getLocations().getInt("locations." + getLocation(rQT) + ".coords.dest.yaw");
-        	Location dest = new Location(w, x, y, z, yaw, pitch);
-        	Location d = checkSafe(dest, p);
-        	p.teleport(d);
-        	QTEffect(loc, d);
-        } else {
-        	double x = getLocations().getInt("locations." + getLocation(rQT) + ".coords.primary.x");
-        	double y = getLocations().getInt("locations." + getLocation(rQT) + ".coords.primary.y");
-        	double z = getLocations().getInt("locations." + getLocation(rQT) + ".coords.primary.z");
-        	Location dest = new Location(w, x, y, z);
-        	Location d = checkSafe(dest, p);
-        	p.teleport(d);
-        	QTEffect(loc, d);
+		int id = getPlayerId(p);
+		if(travelling.containsKey(id)) {
+			sender.sendMessage("You are already QuickTravelling!");
+			return;
+		}
+		QTTravel t = new QTTravel(this, p, getLocationName(rQT), c);
+		travelling.put(id, t);
+		t.run();
+	}
+	
+	/* Called by QTGroupTravel when p joins it, returns false if p is already travelling */
+	public boolean travelStarted(Player p, Object t) {
+		int id = getPlayerId(p);
+		if(travelling.containsKey(id)) {
+			return false;
+		}
+		travelling.put(id, t);
+		return true;
+	}
+	
+	/* Called by QTTravel and QTGroupTravel once p's travel has finished or failed */
+	public void travelFinished(Player p, Object t) {
+		int id = getPlayerId(p);
+		if(travelling.get(id) == t) {
+			travelling.remove(id);
 		}
 	}
 	
 	public Location checkSafe(Location d, Player p) {
+		if(safetyCache != null && safetyCache.isSafe(d)) {
+			/* Made safe before and nothing has changed around it since */
+			return d;
+		}
 		World w = d.getWorld();
 		double x = d.getX();
 		double y = d.getY();
@@ -905,11 +1184,23 @@ public class QuickTravel extends JavaPlugin implements Listener {
 			dcc9.getBlock().setType(Material.GLASS);
 		}
 		
+		if(safetyCache != null) {
+			safetyCache.markSafe(d);
+		}
 		return d;
 	}
 	
 	public void QTEffect(Location p, Location d) {
 		World w = d.getWorld();
+		int load = getLoadLevel();
+		if(load == QTLoadMonitor.MINIMAL) {
+			return;
+		} else if(load == QTLoadMonitor.REDUCED) {
+			/* Skip the smoke */
+			p.getWorld().playEffect(p, Effect.ENDER_SIGNAL, null);
+			w.playEffect(d, Effect.ENDER_SIGNAL, null);
+			return;
+		}
 		double x = d.getX();
 		double y = d.getY();
 		double z = d.getZ();
@@ -968,7 +1259,7 @@ public class QuickTravel extends JavaPlugin implements Listener {
 				sender.sendMessage("Names must contain letters.");
 				return;
 			} catch(NumberFormatException e) {
-				if(!(!args[1].equalsIgnoreCase("create") && !args[1].equalsIgnoreCase("rename") && !args[1].equalsIgnoreCase("name") && !args[1].equalsIgnoreCase("type") && !args[1].equalsIgnoreCase("t") && !args[1].equalsIgnoreCase("radius") && !args[1].equalsIgnoreCase("r") && !args[1].equalsIgnoreCase("cuboid") && !args[1].equalsIgnoreCase("c") && !args[1].equalsIgnoreCase("update") && !args[1].equalsIgnoreCase("u") && !args[1].equalsIgnoreCase("dest") && !args[1].equalsIgnoreCase("enable") && !args[1].equalsIgnoreCase("e") && !args[1].equalsIgnoreCase("disable") && !args[1].equalsIgnoreCase("price") && !args[1].equalsIgnoreCase("charge") && !args[1].equalsIgnoreCase("free") && !args[1].equalsIgnoreCase("f") && !args[1].equalsIgnoreCase("discovery") && !args[1].equalsIgnoreCase("discover") && !args[1].equalsIgnoreCase("disc") && !args[1].equalsIgnoreCase("d") && !args[1].equalsIgnoreCase("perms") && !args[1].equalsIgnoreCase("perm") && !args[1].equalsIgnoreCase("p") && !args[1].equalsIgnoreCase("multiworld") && !args[1].equalsIgnoreCase("multi") && !args[1].equalsIgnoreCase("m"))) {
+				if(!(!args[1].equalsIgnoreCase("create") && !args[1].equalsIgnoreCase("rename") && !args[1].equalsIgnoreCase("name") && !args[1].equalsIgnoreCase("type") && !args[1].equalsIgnoreCase("t") && !args[1].equalsIgnoreCase("radius") && !args[1].equalsIgnoreCase("r") && !args[1].equalsIgnoreCase("cuboid") && !args[1].equalsIgnoreCase("c") && !args[1].equalsIgnoreCase("update") && !args[1].equalsIgnoreCase("u") && !args[1].equalsIgnoreCase("dest") && !args[1].equalsIgnoreCase("enable") && !args[1].equalsIgnoreCase("e") && !args[1].equalsIgnoreCase("disable") && !args[1].equalsIgnoreCase("price") && !args[1].equalsIgnoreCase("charge") && !args[1].equalsIgnoreCase("free") && !args[1].equalsIgnoreCase("f") && !args[1].equalsIgnoreCase("discovery") && !args[1].equalsIgnoreCase("discover") && !args[1].equalsIgnoreCase("disc") && !args[1].equalsIgnoreCase("d") && !args[1].equalsIgnoreCase("perms") && !args[1].equalsIgnoreCase("perm") && !args[1].equalsIgnoreCase("p") && !args[1].equalsIgnoreCase("multiworld") && !args[1].equalsIgnoreCase("multi") && !args[1].equalsIgnoreCase("m") && !args[1].equalsIgnoreCase("route") && !args[1].equalsIgnoreCase("near") && !args[1].equalsIgnoreCase("reload") && !args[1].equalsIgnoreCase("purge") && !args[1].equalsIgnoreCase("found") && !args[1].equalsIgnoreCase("stats") && !args[1].equalsIgnoreCase("group"))) {
 					/* Player attempting to name a QT after a command */
 					sender.sendMessage(ChatColor.RED + "[Error]" + ChatColor.GOLD + " Could not create: " + ChatColor.AQUA + args[1] + ChatColor.GOLD + " is not a valid name!");
 					sender.sendMessage("Names must not match /qt commands.");
@@ -1185,7 +1476,7 @@ public class QuickTravel extends JavaPlugin implements Listener {
 				sender.sendMessage("Names must contain letters.");
 				return;
 			} catch(NumberFormatException e) {
-				if(!(!args[1].equalsIgnoreCase("create") && !args[1].equalsIgnoreCase("rename") && !args[1].equalsIgnoreCase("name") && !args[1].equalsIgnoreCase("type") && !args[1].equalsIgnoreCase("t") && !args[1].equalsIgnoreCase("radius") && !args[1].equalsIgnoreCase("r") && !args[1].equalsIgnoreCase("cuboid") && !args[1].equalsIgnoreCase("c") && !args[1].equalsIgnoreCase("update") && !args[1].equalsIgnoreCase("u") && !args[1].equalsIgnoreCase("dest") && !args[1].equalsIgnoreCase("enable") && !args[1].equalsIgnoreCase("e") && !args[1].equalsIgnoreCase("disable") && !args[1].equalsIgnoreCase("price") && !args[1].equalsIgnoreCase("charge") && !args[1].equalsIgnoreCase("free") && !args[1].equalsIgnoreCase("f") && !args[1].equalsIgnoreCase("discovery") && !args[1].equalsIgnoreCase("discover") && !args[1].equalsIgnoreCase("disc") && !args[1].equalsIgnoreCase("d") && !args[1].equalsIgnoreCase("perms") && !args[1].equalsIgnoreCase("perm") && !args[1].equalsIgnoreCase("p") && !args[1].equalsIgnoreCase("multiworld") && !args[1].equalsIgnoreCase("multi") && !args[1].equalsIgnoreCase("m"))) {
+				if(!(!args[1].equalsIgnoreCase("create") && !args[1].equalsIgnoreCase("rename") && !args[1].equalsIgnoreCase("name") && !args[1].equalsIgnoreCase("type") && !args[1].equalsIgnoreCase("t") && !args[1].equalsIgnoreCase("radius") && !args[1].equalsIgnoreCase("r") && !args[1].equalsIgnoreCase("cuboid") && !args[1].equalsIgnoreCase("c") && !args[1].equalsIgnoreCase("update") && !args[1].equalsIgnoreCase("u") && !args[1].equalsIgnoreCase("dest") && !args[1].equalsIgnoreCase("enable") && !args[1].equalsIgnoreCase("e") && !args[1].equalsIgnoreCase("disable") && !args[1].equalsIgnoreCase("price") && !args[1].equalsIgnoreCase("charge") && !args[1].equalsIgnoreCase("free") && !args[1].equalsIgnoreCase("f") && !args[1].equalsIgnoreCase("discovery") && !args[1].equalsIgnoreCase("discover") && !args[1].equalsIgnoreCase("disc") && !args[1].equalsIgnoreCase("d") && !args[1].equalsIgnoreCase("perms") && !args[1].equalsIgnoreCase("perm") && !args[1].equalsIgnoreCase("p") && !args[1].equalsIgnoreCase("multiworld") && !args[1].equalsIgnoreCase("multi") && !args[1].equalsIgnoreCase("m") && !args[1].equalsIgnoreCase("route") && !args[1].equalsIgnoreCase("near") && !args[1].equalsIgnoreCase("reload") && !args[1].equalsIgnoreCase("purge") && !args[1].equalsIgnoreCase("found") && !args[1].equalsIgnoreCase("stats") && !args[1].equalsIgnoreCase("group"))) {
 					/* Player attempting to name a QT after a command */
 					sender.sendMessage(ChatColor.RED + "[Error]" + ChatColor.GOLD + " Could not rename: " + ChatColor.AQUA + args[2] + ChatColor.GOLD + " is not a valid name!");
 					sender.sendMessage("Names must not match /qt commands.");
@@ -2512,11 +2803,352 @@ public class QuickTravel extends JavaPlugin implements Listener {
 		}
 	}
 	
+	public void QTRoute(CommandSender sender, String[] args) {
+		/* Get arguments and deal with appropriately */
+		if(args.length == 2) {
+			String qt = getCurrentQT((Player)sender);
+			if(qt == null) {
+				/* Routes are planned between QTs */
+				sender.sendMessage(ChatColor.BLUE + "You are not at a QuickTravel point.");
+				return;
+			}
+			if(checkLocations(args[1]) == false) {
+				sender.sendMessage("[" + ChatColor.RED + "Error" + ChatColor.WHITE + "] We do not know " + ChatColor.AQUA + args[1] + ChatColor.WHITE + "!");
+				return;
+			}
+			if(qt.equalsIgnoreCase(args[1])) {
+				sender.sendMessage(ChatColor.BLUE + "You are already at " + ChatColor.AQUA + qt + ChatColor.BLUE + "!");
+				return;
+			}
+			QTRouter.Route route = router.findRoute((Player)sender, getLocation(qt), getLocation(args[1]));
+			if(route == null) {
+				/* Destination unknown to this player or unreachable */
+				sender.sendMessage("[" + ChatColor.RED + "Error" + ChatColor.WHITE + "] We do not know " + ChatColor.AQUA + args[1] + ChatColor.WHITE + "!");
+				return;
+			}
+			String hops = "";
+			ListIterator<String> li = route.hops.listIterator();
+			while(li.hasNext()) {
+				hops = hops + ChatColor.AQUA + getLocationName(li.next());
+				if(li.hasNext()) {
+					hops = hops + ChatColor.WHITE + " > ";
+				}
+			}
+			sender.sendMessage(ChatColor.BLUE + "Cheapest route to " + ChatColor.AQUA + getLocationName(getLocation(args[1])) + ChatColor.BLUE + ":");
+			sender.sendMessage(hops);
+			if(economyEnabled == true && route.price > 0) {
+				sender.sendMessage(ChatColor.GOLD + "Price: " + EcoSetup.economy.format(route.price));
+			}
+			return;
+		} else {
+			/* Invalid arguments, throw info message. */
+			sender.sendMessage("Shows the cheapest way to reach QT <name>, via other QTs if needed.");
+			sender.sendMessage("/qt route <name>");
+			return;
+		}
+	}
+	
+	public void QTNear(CommandSender sender, String[] args) {
+		/* Get arguments and deal with appropriately */
+		int n = 5;
+		if(args.length == 2) {
+			try {
+				n = Integer.parseInt(args[1]);
+			} catch(NumberFormatException e) {
+				sender.sendMessage("'" + args[1] + "' is not a number, showing the nearest 5.");
+			}
+			if(n <= 0) {
+				n = 1;
+			} else if(n > 20) {
+				n = 20;
+			}
+		} else if(args.length > 2) {
+			/* Invalid arguments, throw info message. */
+			sender.sendMessage("Shows the QTs nearest to you.");
+			sender.sendMessage("/qt near <number (optional)>");
+			return;
+		}
+		Player p = (Player)sender;
+		Location loc = p.getLocation();
+		final QTSnapshot snapshot = registry.getSnapshot();
+		final QTTraveller traveller = QTTraveller.capture(this, p, snapshot);
+		List<QTInfo> near = nearIndex.nearest(p.getWorld().getName(), loc.getX(), loc.getY(), loc.getZ(), n, new QTNearIndex.Filter() {
+			public boolean accept(QTInfo v) {
+				return traveller.canTravelTo(snapshot, v);
+			}
+		});
+		if(near.size() <= 0) {
+			sender.sendMessage("There are no QuickTravel points near you.");
+			return;
+		}
+		sender.sendMessage(ChatColor.BLUE + "Nearest QuickTravel points:");
+		for(QTInfo v : near) {
+			long d = Math.round(Math.sqrt(Math.pow(v.getDestX() - loc.getX(), 2) + Math.pow(v.getDestY() - loc.getY(), 2) + Math.pow(v.getDestZ() - loc.getZ(), 2)));
+			sender.sendMessage(ChatColor.AQUA + v.getName() + ChatColor.WHITE + " | " + ChatColor.GOLD + d + ChatColor.WHITE + " blocks away");
+		}
+	}
+	
+	public void QTStats(CommandSender sender, String[] args) {
+		if(routeStats == null) {
+			sender.sendMessage("Route stats are turned off.");
+			return;
+		}
+		if(args.length >= 2 && args.length <= 3 && args[1].equalsIgnoreCase("routes")) {
+			int page = 1;
+			if(args.length == 3) {
+				try {
+					page = Math.max(1, Integer.parseInt(args[2]));
+				} catch(NumberFormatException e) {
+					sender.sendMessage("'" + args[2] + "' is not a number, showing page 1.");
+				}
+			}
+			List<QTRouteStats.Route> routes = routeStats.getRoutes();
+			if(routes.size() <= 0) {
+				sender.sendMessage("Nobody has QuickTravelled yet.");
+				return;
+			}
+			int pages = (int) Math.ceil((double)routes.size() / (double)8);
+			if(page > pages) {
+				sender.sendMessage("There is no page " + page + ", displaying page 1.");
+				page = 1;
+			}
+			String[] names = QTRouteStats.names(registry.getSnapshot());
+			sender.sendMessage(ChatColor.BLUE + "Busiest routes, last " + routeStats.getHours() + " hours first:");
+			for(int i = (page - 1) * 8; i < routes.size() && i < page * 8; i++) {
+				QTRouteStats.Route r = routes.get(i);
+				String from = QTRouteStats.name(names, r.from);
+				String line = ChatColor.AQUA + (from == null ? "(anywhere)" : from) + ChatColor.WHITE + " -> " + ChatColor.AQUA + QTRouteStats.name(names, r.to) + ChatColor.WHITE + " | " + ChatColor.GOLD + r.recentTrips + ChatColor.WHITE + " recent, " + ChatColor.GOLD + r.trips + ChatColor.WHITE + " total";
+				if(r.failures > 0) {
+					line = line + ", " + ChatColor.RED + r.failures + ChatColor.WHITE + " failed";
+				}
+				if(r.revenue > 0 && economyEnabled == true) {
+					line = line + " | " + ChatColor.GOLD + EcoSetup.economy.format(r.revenue);
+				}
+				sender.sendMessage(line);
+			}
+			sender.sendMessage(pageFooter(page, pages, "/qt stats routes "));
+		} else if(args.length == 3 && args[1].equalsIgnoreCase("export") && (args[2].equalsIgnoreCase("csv") || args[2].equalsIgnoreCase("json"))) {
+			routeStats.export(sender, args[2].equalsIgnoreCase("json"));
+		} else {
+			/* Invalid arguments, throw info message. */
+			sender.sendMessage("Shows the busiest QuickTravel routes, or saves them all to a file.");
+			sender.sendMessage("/qt stats routes <page (optional)>");
+			sender.sendMessage("/qt stats export <csv | json>");
+		}
+	}
+	
+	/* Removes discoveries of QTs no longer in locations.yml from every player file */
+	public void QTPurge(final CommandSender sender, String[] args) {
+		if(args.length != 2 || !args[1].equalsIgnoreCase("discoveries")) {
+			/* Invalid arguments, throw info message. */
+			sender.sendMessage("Forgets every discovery of a QT that no longer exists. This cannot be undone.");
+			sender.sendMessage("/qt purge discoveries");
+			return;
+		}
+		boolean started = discoveries.purgeQTs(registry.getSnapshot(), new QTDiscoveries.Callback() {
+			public void done(int files) {
+				sender.sendMessage(ChatColor.BLUE + "Removed old discoveries from " + ChatColor.GOLD + files + ChatColor.BLUE + " player files.");
+			}
+		});
+		if(started == false) {
+			sender.sendMessage("[" + ChatColor.RED + "Error" + ChatColor.WHITE + "] There are no QTs, check locations.yml loaded properly.");
+			return;
+		}
+		sender.sendMessage("Purging discoveries...");
+	}
+	
+	/* Invites the players standing in the leader's QT nearby along, see QTGroupTravel */
+	public void QTGroup(CommandSender sender, String[] args) {
+		if(args.length != 2) {
+			/* Invalid arguments, throw info message. */
+			sender.sendMessage("Invites the players with you at this QT to QuickTravel with you.");
+			sender.sendMessage("/qt group <destination>");
+			sender.sendMessage("/qt group accept");
+			return;
+		}
+		if(args[1].equalsIgnoreCase("accept") && !checkLocations(args[1])) {
+			sender.sendMessage("You have not been invited to QuickTravel with a group.");
+			return;
+		}
+		Player leader = (Player)sender;
+		if(travelling.containsKey(getPlayerId(leader))) {
+			sender.sendMessage("You are already QuickTravelling!");
+			return;
+		}
+		String current = getCurrentQT(leader);
+		if(current == null) {
+			sender.sendMessage(ChatColor.BLUE + "You are not at a QuickTravel point.");
+			return;
+		}
+		if(runChecks(sender, args[1], true) == false) {
+			QTList(sender, 1, false);
+			return;
+		}
+		QTSnapshot snapshot = registry.getSnapshot();
+		QTInfo from = snapshot.getQT(current);
+		QTInfo to = snapshot.getQT(getLocationName(args[1]));
+		if(from == null || to == null) {
+			sender.sendMessage("[" + ChatColor.RED + "Error" + ChatColor.WHITE + "] We do not know " + ChatColor.AQUA + args[1] + ChatColor.WHITE + "!");
+			return;
+		}
+		if(from.getId() == to.getId()) {
+			sender.sendMessage(ChatColor.BLUE + "You are already at " + ChatColor.AQUA + current + ChatColor.BLUE + "!");
+			return;
+		}
+		long wait = cooldowns == null ? 0 : cooldowns.remaining(getPlayerId(leader), to.getId());
+		if(wait > 0) {
+			sender.sendMessage("You must wait " + ChatColor.GOLD + ((wait + 19) / 20) + ChatColor.WHITE + " more seconds before QuickTravelling there.");
+			return;
+		}
+		/* Everyone else in the same QT close enough, who could make the trip themselves */
+		List<Player> players = new ArrayList<Player>();
+		double radius = getConfig().getDouble("group-travel-radius");
+		int max = getConfig().getInt("group-travel-max-size");
+		Location loc = leader.getLocation();
+		for(Player p : leader.getWorld().getPlayers()) {
+			if(players.size() + 1 >= max) {
+				break;
+			}
+			int id = getPlayerId(p);
+			if(p == leader || travelling.containsKey(id) || groupInvites.containsKey(id) || p.getLocation().distanceSquared(loc) > radius * radius) {
+				continue;
+			}
+			if(canGroupTravel(p, current, args[1], to.getId())) {
+				players.add(p);
+			}
+		}
+		if(players.isEmpty()) {
+			sender.sendMessage("There is nobody here to QuickTravel with, use " + ChatColor.GOLD + "/qt " + to.getName() + ChatColor.WHITE + " instead.");
+			return;
+		}
+		Double quoted = getQuote(leader, current, args[1]);
+		QTGroupTravel g = new QTGroupTravel(this, leader, quoted != null ? quoted : snapshot.getPrice(from, to), current, from.getId(), to.getName(), getConfig().getLong("group-travel-invite-seconds") * 20);
+		for(Player p : players) {
+			quoted = getQuote(p, current, args[1]);
+			g.invite(p, quoted != null ? quoted : snapshot.getPrice(from, to));
+		}
+		travelling.put(getPlayerId(leader), g);
+		g.run();
+	}
+	
+	/* Joins the group the player was last invited to */
+	public void QTGroupAccept(CommandSender sender) {
+		Player p = (Player)sender;
+		QTGroupTravel g = groupInvites.get(getPlayerId(p));
+		if(g == null || !g.accept(p)) {
+			sender.sendMessage("[" + ChatColor.RED + "Error" + ChatColor.WHITE + "] That invite is no longer open.");
+		}
+	}
+	
+	/* Whether p could make the trip from the QT named current to rQT themselves, for group travel */
+	public boolean canGroupTravel(Player p, String current, String rQT, int qtId) {
+		if(!p.hasPermission("qt.user")) {
+			return false;
+		}
+		if(cooldowns != null && cooldowns.remaining(getPlayerId(p), qtId) > 0) {
+			return false;
+		}
+		updatePlayerZone(p, true);
+		return current.equals(getCurrentQT(p)) && runChecks(p, rQT, false) == true;
+	}
+	
+	/* Whether p may still make the trip to rQT they started at the QT named current
+	 * (null when not at one), for QTTravel to check again after every wait */
+	public boolean canStillTravel(Player p, String current, String rQT) {
+		if(!p.hasPermission("qt.user")) {
+			return false;
+		}
+		updatePlayerZone(p, true);
+		if(current != null && getConfig().getBoolean("qt-from-anywhere") == false && !current.equals(getCurrentQT(p))) {
+			return false;
+		}
+		return runChecks(p, rQT, false) == true;
+	}
+	
+	/* Called by QTGroupTravel as it invites the player with this id */
+	public void inviteOpened(int playerId, QTGroupTravel g) {
+		groupInvites.put(playerId, g);
+	}
+	
+	/* Called by QTGroupTravel once the invite to the player with this id is answered or has run out */
+	public void inviteClosed(int playerId, QTGroupTravel g) {
+		if(groupInvites.get(playerId) == g) {
+			groupInvites.remove(playerId);
+		}
+	}
+	
+	public void QTFound(CommandSender sender, String[] args) {
+		if(args.length != 2 && args.length != 3) {
+			/* Invalid arguments, throw info message. */
+			sender.sendMessage("Shows who has discovered QT <A>, optionally only those who have not discovered QT <B>.");
+			sender.sendMessage("/qt found <A> <B (optional)>");
+			return;
+		}
+		QTSnapshot snapshot = registry.getSnapshot();
+		QTInfo a = snapshot.getQT(args[1]);
+		QTInfo b = args.length == 3 ? snapshot.getQT(args[2]) : null;
+		if(a == null || (args.length == 3 && b == null)) {
+			sender.sendMessage("[" + ChatColor.RED + "Error" + ChatColor.WHITE + "] " + ChatColor.AQUA + (a == null ? args[1] : args[2]) + ChatColor.WHITE + " does not exist!");
+			return;
+		}
+		QTBitmap found = discoveries.getDiscoverers(a.getKey());
+		if(b != null) {
+			found = found.andNot(discoveries.getDiscoverers(b.getKey()));
+			sender.sendMessage(ChatColor.GOLD + "" + found.cardinality() + ChatColor.WHITE + " players have discovered " + ChatColor.AQUA + a.getName() + ChatColor.WHITE + " but not " + ChatColor.AQUA + b.getName() + ChatColor.WHITE + ".");
+		} else {
+			sender.sendMessage(ChatColor.GOLD + "" + found.cardinality() + ChatColor.WHITE + " players have discovered " + ChatColor.AQUA + a.getName() + ChatColor.WHITE + ".");
+		}
+		int[] ids = found.toArray();
+		if(ids.length > 0) {
+			StringBuilder names = new StringBuilder();
+			for(int i = 0; i < ids.length && i < 10; i++) {
+				if(i > 0) {
+					names.append(", ");
+				}
+				names.append(discoveries.getPlayerName(ids[i]));
+			}
+			if(ids.length > 10) {
+				names.append(" and " + (ids.length - 10) + " more");
+			}
+			sender.sendMessage(names.toString());
+		}
+	}
+	
+	/* Puts the QTs (location keys) in the player's world first, nearest first, then the rest in their original order */
+	public List<Object> sortByDistance(Player p, List<Object> destList) {
+		final Set<String> keys = new HashSet<String>();
+		for(Object v : destList) {
+			keys.add(v.toString());
+		}
+		Location loc = p.getLocation();
+		List<QTInfo> near = nearIndex.nearest(p.getWorld().getName(), loc.getX(), loc.getY(), loc.getZ(), destList.size(), new QTNearIndex.Filter() {
+			public boolean accept(QTInfo qt) {
+				return keys.contains(qt.getKey());
+			}
+		});
+		List<Object> sorted = new ArrayList<Object>();
+		for(QTInfo v : near) {
+			sorted.add(v.getKey());
+			keys.remove(v.getKey());
+		}
+		for(Object v : destList) {
+			if(keys.contains(v.toString())) {
+				sorted.add(v);
+			}
+		}
+		return sorted;
+	}
+	
 	@SuppressWarnings("unchecked")
 	public void QTList(CommandSender sender, int page, boolean listAll) {
 		if(listAll == false) {
-			String qt = checkPlayerQT(sender);
+			String qt = getCurrentQT((Player)sender);
 			if(qt != null || getConfig().getBoolean("qt-from-anywhere") == true) {
+				int threshold = getConfig().getInt("parallel-list-threshold");
+				if(asyncCommands != null && (getConfig().getBoolean("async-commands") == true || registry.getSnapshot().getQTs().size() >= threshold)) {
+					asyncCommands.listDestinations((Player)sender, page, parallelList, threshold, getConfig().getBoolean("sort-list-by-distance"));
+					return;
+				}
 				List<Object> locList = (List<Object>) getLocations().getList("list");
 				List<Object> destList = new ArrayList<Object>();
 				if(qt != null) {
@@ -2534,6 +3166,9 @@ public class QuickTravel extends JavaPlugin implements Listener {
 					if(destList.size() <= 0) {
 						sender.sendMessage("You cannot QuickTravel anywhere yet.");
 					} else {
+						if(getConfig().getBoolean("sort-list-by-distance") == true) {
+							destList = sortByDistance((Player)sender, destList);
+						}
 						displayList(sender, destList, qt, page);
 					}
 				} else {
@@ -2542,6 +3177,8 @@ public class QuickTravel extends JavaPlugin implements Listener {
 			} else {
 				sender.sendMessage(ChatColor.BLUE + "You are not at a QuickTravel point.");
 			}	
+		} else if(asyncCommands != null && getConfig().getBoolean("async-commands") == true) {
+			asyncCommands.listAll(sender, page);
 		} else {
 			List<Object> fullList = new ArrayList<Object>();
 			List<Object> locList = (List<Object>) getLocations().getList("list");
@@ -2569,16 +3206,7 @@ public class QuickTravel extends JavaPlugin implements Listener {
 						e = "Disabled";
 						eColour = ChatColor.RED;
 					}
-					List<Object> discoveredList = (List<Object>) getLocations().getList("locations." + v + ".discovered-by");
-					if(discoveredList != null) {
-						ListIterator<Object> dli = discoveredList.listIterator();
-						while(dli.hasNext()) {
-							String dv = dli.next().toString();
-							if(dv.equalsIgnoreCase(sender.getName())) {
-								dState = true;
-							}
-						}
-					}
+					dState = sender instanceof Player && discoveries.hasDiscovered(getPlayerId((Player)sender), v);
 					if(dCfg == false) {
 						if(dState == true) {
 							d = "Discovered";
@@ -2616,14 +3244,7 @@ public class QuickTravel extends JavaPlugin implements Listener {
 						sender.sendMessage(v);
 					}
 				}
-				String pageString = null;
-				if(page < pages) {
-					int nextPage = page + 1;
-					pageString = "Page " + ChatColor.GOLD + page + ChatColor.WHITE + " of " + ChatColor.GOLD + pages + ChatColor.WHITE + ". Type " + ChatColor.GOLD + "/qt list " + nextPage + ChatColor.WHITE + " to read the next page.";	
-				} else {
-					pageString = "Page " + ChatColor.GOLD + page + ChatColor.WHITE + " of " + ChatColor.GOLD + pages;
-				}
-				sender.sendMessage(pageString);
+				sender.sendMessage(pageFooter(page, pages, "/qt list "));
 			} else {
 				sender.sendMessage("The list is empty.");
 			}
@@ -2644,6 +3265,8 @@ public class QuickTravel extends JavaPlugin implements Listener {
 		String pWorld = p.getWorld().getName();
 		String wString = "";
 		double tax = getConfig().getDouble("multiworld-tax");
+		/* Prices shown, by location key */
+		Map<String, Double> shown = new HashMap<String, Double>();
 		ListIterator<Object> destLI = destList.listIterator();
 		while(destLI.hasNext()) {
 			String v = destLI.next().toString();
@@ -2727,16 +3350,22 @@ public class QuickTravel extends JavaPlugin implements Listener {
 					/* No price required or economy disabled */
 					sender.sendMessage(wString + ChatColor.AQUA + getLocationName(v));
 				}
+				shown.put(v, c);
 			}
 		}
-		String pageString = null;
+		if(economyEnabled == true) {
+			quotes.offer(getPlayerId(p), QTQuotes.from(qt == null ? null : getLocation(qt), pWorld, p.getLocation().getX(), p.getLocation().getZ()), registry.getSnapshot().getVersion(), shown);
+		}
+		sender.sendMessage(pageFooter(page, pages, "/qt "));
+	}
+	
+	/* "Page x of y" line shown under lists, command is what to type before the next page number */
+	public String pageFooter(int page, int pages, String command) {
 		if(page < pages) {
 			int nextPage = page + 1;
-			pageString = "Page " + ChatColor.GOLD + page + ChatColor.WHITE + " of " + ChatColor.GOLD + pages + ChatColor.WHITE + ". Type " + ChatColor.GOLD + "/qt " + nextPage + ChatColor.WHITE + " to read the next page.";	
-		} else {
-			pageString = "Page " + ChatColor.GOLD + page + ChatColor.WHITE + " of " + ChatColor.GOLD + pages;
+			return "Page " + ChatColor.GOLD + page + ChatColor.WHITE + " of " + ChatColor.GOLD + pages + ChatColor.WHITE + ". Type " + ChatColor.GOLD + command + nextPage + ChatColor.WHITE + " to read the next page.";	
 		}
-		sender.sendMessage(pageString);
+		return "Page " + ChatColor.GOLD + page + ChatColor.WHITE + " of " + ChatColor.GOLD + pages;
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -2765,7 +3394,7 @@ public class QuickTravel extends JavaPlugin implements Listener {
 			return false;
 		}
 		/* Multiworld checks */
-		String qt = checkPlayerQT(p);
+		String qt = getCurrentQT(p);
 		String pWorld = p.getWorld().getName();
 		String locWorld = getLocations().getString("locations." + getLocation(rQT) + ".world");
 		if(!pWorld.equals(locWorld)) {
@@ -2811,94 +3440,12 @@ public class QuickTravel extends JavaPlugin implements Listener {
 				}
 			}
 		}
-		boolean discovered = false;
-		if(getLocations().get("locations." + getLocation(rQT) + ".require-discovery") != null) {
-			/* Is discovery required? */
-			if(getLocations().getBoolean("locations." + getLocation(rQT) + ".require-discovery") == true) {
-				/* Yes, check to see if player has discovered it */
-				List<Object> dList = (List<Object>) getLocations().getList("locations." + getLocation(rQT) + ".discovered-by");
-				if(dList != null) {
-					ListIterator<Object> dli = dList.listIterator();
-					while(dli.hasNext()) {
-						String dv = dli.next().toString();
-						if(dv.equalsIgnoreCase(sender.getName())) {
-							/* Player has discovered */
-							discovered = true;
-							break;
-						}
-					}
-					if(discovered == false) {
-						if(e) {
-							sender.sendMessage("[" + ChatColor.RED + "Error" + ChatColor.WHITE + "] We do not know " + ChatColor.AQUA + rQT + ChatColor.WHITE + "!");
-						}
-						return false;
-					}
-				} else {
-					if(e) {
-						sender.sendMessage("[" + ChatColor.RED + "Error" + ChatColor.WHITE + "] We do not know " + ChatColor.AQUA + rQT + ChatColor.WHITE + "!");
-					}
-					return false;
-				}
-			} else if(getLocations().getBoolean("locations." + getLocation(rQT) + ".require-discovery") == false) {
-				/* No, nothing to do here */
-				
-			} else {
-				/* This QT's discovery setting is broken, use default instead */
-				if(getConfig().getBoolean("require-discovery-by-default") == true) {
-					/* Discovery required by default */
-					List<Object> dList = (List<Object>) getLocations().getList("locations." + getLocation(rQT) + ".discovered-by");
-					if(dList != null) {
-						ListIterator<Object> dli = dList.listIterator();
-						while(dli.hasNext()) {
-							String dv = dli.next().toString();
-							if(dv.equalsIgnoreCase(sender.getName())) {
-								/* Player has discovered */
-								discovered = true;
-								break;
-							}
-						}
-						if(discovered == false) {
-							if(e) {
-								sender.sendMessage("[" + ChatColor.RED + "Error" + ChatColor.WHITE + "] We do not know " + ChatColor.AQUA + rQT + ChatColor.WHITE + "!");
-							}
-							return false;
-						}
-					} else {
-						if(e) {
-							sender.sendMessage("[" + ChatColor.RED + "Error" + ChatColor.WHITE + "] We do not know " + ChatColor.AQUA + rQT + ChatColor.WHITE + "!");
-						}
-						return false;
-					}
-				}
-			}
-		} else {
-			/* No discovery setting for QT, use default instead */
-			if(getConfig().getBoolean("require-discovery-by-default") == true) {
-				/* Discovery required by default */
-				List<Object> dList = (List<Object>) getLocations().getList("locations." + getLocation(rQT) + ".discovered-by");
-				if(dList != null) {
-					ListIterator<Object> dli = dList.listIterator();
-					while(dli.hasNext()) {
-						String dv = dli.next().toString();
-						if(dv.equalsIgnoreCase(sender.getName())) {
-							/* Player has discovered */
-							discovered = true;
-							break;
-						}
-					}
-					if(discovered == false) {
-						if(e) {
-							sender.sendMessage("[" + ChatColor.RED + "Error" + ChatColor.WHITE + "] We do not know " + ChatColor.AQUA + rQT + ChatColor.WHITE + "!");
-						}
-						return false;
-					}
-				} else {
-					if(e) {
-						sender.sendMessage("[" + ChatColor.RED + "Error" + ChatColor.WHITE + "] We do not know " + ChatColor.AQUA + rQT + ChatColor.WHITE + "!");
-					}
-					return false;
-				}
+		if(!playerHasDiscovered(p, getLocation(rQT))) {
+			/* Discovery required and not discovered */
+			if(e) {
+				sender.sendMessage("[" + ChatColor.RED + "Error" + ChatColor.WHITE + "] We do not know " + ChatColor.AQUA + rQT + ChatColor.WHITE + "!");
 			}
+			return false;
 		}
 		return true;
 	}
@@ -2946,14 +3493,7 @@ public class QuickTravel extends JavaPlugin implements Listener {
 			yTo = getLocations().getInt("locations." + to + ".coords.primary.y");
 			zTo = getLocations().getInt("locations." + to + ".coords.primary.z");
 		}
-		double xDiff = calculateDiff(xFrom, xTo); 
-		double yDiff = calculateDiff(yFrom, yTo);
-		double zDiff = calculateDiff(zFrom, zTo);
-		double m = getConfig().getDouble("price-multiplier");
-		if(!wFrom.equalsIgnoreCase(wTo)) {
-			m = getConfig().getDouble("multiworld-multiplier");
-		}
-		return (int) Math.ceil((xDiff + yDiff + zDiff) * m);
+		return calculatePrice(xFrom, yFrom, zFrom, xTo, yTo, zTo, !wFrom.equalsIgnoreCase(wTo));
 	}
 	
 	public int calculatePrice(CommandSender sender, String to) {
@@ -2976,14 +3516,15 @@ public class QuickTravel extends JavaPlugin implements Listener {
 			yTo = getLocations().getInt("locations." + to + ".coords.primary.y");
 			zTo = getLocations().getInt("locations." + to + ".coords.primary.z");
 		}
-		double xDiff = calculateDiff(xFrom, xTo); 
-		double yDiff = calculateDiff(yFrom, yTo);
-		double zDiff = calculateDiff(zFrom, zTo);
+		return calculatePrice(xFrom, yFrom, zFrom, xTo, yTo, zTo, !wFrom.equalsIgnoreCase(wTo));
+	}
+	
+	public int calculatePrice(double xFrom, double yFrom, double zFrom, double xTo, double yTo, double zTo, boolean multiworld) {
 		double m = getConfig().getDouble("price-multiplier");
-		if(!wFrom.equalsIgnoreCase(wTo)) {
+		if(multiworld == true) {
 			m = getConfig().getDouble("multiworld-multiplier");
 		}
-		return (int) Math.ceil((xDiff + yDiff + zDiff) * m);
+		return QTSnapshot.calculatePrice(xFrom, yFrom, zFrom, xTo, yTo, zTo, m);
 	}
 	
 	public double calculateDiff(double n1, double n2) {
@@ -3036,6 +3577,15 @@ public class QuickTravel extends JavaPlugin implements Listener {
 	}
 
 	public boolean playerHasPermission(Player p, String qt) {
+		QTSnapshot snapshot = registry.getSnapshot();
+		QTInfo info = snapshot.getQT(qt);
+		if(info == null) {
+			info = snapshot.getQTByKey(qt);
+		}
+		if(info != null) {
+			/* Cached, see QTPermissions */
+			return permissions.hasPermission(p, info);
+		}
 		if(getLocations().get("locations." + getLocation(qt) + ".require-permissions") != null) {
 			if((getLocations().getBoolean("locations." + getLocation(qt) + ".require-permissions") == true && p.hasPermission("qt.use." + getLocation(qt).toLowerCase())) || getLocations().getBoolean("locations." + getLocation(qt) + ".require-permissions") == false) {
 				return true;
@@ -3051,6 +3601,17 @@ public class QuickTravel extends JavaPlugin implements Listener {
 		}
 	}
 	
+	public boolean playerHasDiscovered(Player p, String qt) {
+		boolean required = getConfig().getBoolean("require-discovery-by-default");
+		if(getLocations().get("locations." + qt + ".require-discovery") != null) {
+			required = getLocations().getBoolean("locations." + qt + ".require-discovery");
+		}
+		if(required == false) {
+			return true;
+		}
+		return discoveries.hasDiscovered(getPlayerId(p), qt);
+	}
+	
 	@SuppressWarnings("unchecked")
 	public boolean checkLocations(String locName) {
 		List<Object> locList = (List<Object>) getLocations().getList("list");
@@ -3204,6 +3765,108 @@ public class QuickTravel extends JavaPlugin implements Listener {
 		}
 	}
 	
+	/* Swaps in freshly parsed files, see QTReloader. Only QTs that changed are rebuilt.
+	 * Returns the changed settings that only take effect after a restart. */
+	public List<String> applyReload(YamlConfiguration newLocations, YamlConfiguration newConfig) {
+		/* Someone may have pasted in QTs with the old discovered-by lists */
+		boolean migrated = discoveries.migrate(newLocations);
+		InputStream defLocationsStream = getResource("locations.yml");
+		if(defLocationsStream != null) {
+			newLocations.setDefaults(YamlConfiguration.loadConfiguration(defLocationsStream));
+		}
+		locations = newLocations;
+		List<String> restart = new ArrayList<String>();
+		for(String key : RESTART_KEYS) {
+			if(newConfig.contains(key) && !String.valueOf(newConfig.get(key)).equals(String.valueOf(getConfig().get(key)))) {
+				restart.add(key);
+			}
+		}
+		for(String key : newConfig.getKeys(false)) {
+			getConfig().set(key, newConfig.get(key));
+		}
+		if(migrated == true) {
+			saveLocations();
+		} else {
+			registry.update();
+			zoneCheckAfter.clear();
+		}
+		discoveries.retainQTs(registry.getSnapshot());
+		return restart;
+	}
+	
+	/* Id of p in the player id table, which per player data is keyed by.
+	 * Looked up once per session, then read from playerIds. */
+	public int getPlayerId(Player p) {
+		Integer id = playerIds.get(p);
+		if(id == null) {
+			id = discoveries.getPlayerIds().intern(p);
+			if(p.isOnline()) {
+				playerIds.put(p, id);
+			}
+		}
+		return id;
+	}
+	
+	/* Price the list last showed p for travelling from QT qt (null when not at one) to rQT, if still valid */
+	public Double getQuote(Player p, String qt, String rQT) {
+		if(economyEnabled == false) {
+			return null;
+		}
+		String from = QTQuotes.from(qt == null ? null : getLocation(qt), p.getWorld().getName(), p.getLocation().getX(), p.getLocation().getZ());
+		return quotes.get(getPlayerId(p), from, registry.getSnapshot().getVersion(), getLocation(rQT));
+	}
+	
+	/* Route stats, or null when turned off */
+	public QTRouteStats getRouteStats() {
+		return routeStats;
+	}
+	
+	/* The timing wheel warmups, cooldowns and group invites run on */
+	public QTTimingWheel getTimers() {
+		return timers;
+	}
+	
+	/* Warmups and cooldowns, or null when there are none */
+	public QTCooldowns getCooldowns() {
+		return cooldowns;
+	}
+	
+	/* The travel admission queue, or null when turned off */
+	public QTAdmission getAdmission() {
+		return admission;
+	}
+	
+	/* The destination preloader, or null when turned off */
+	public QTPreloader getPreloader() {
+		return preloader;
+	}
+	
+	/* The charge log, or null when turned off */
+	public QTAuditLog getAuditLog() {
+		return auditLog;
+	}
+	
+	public QTQuotes getQuotes() {
+		return quotes;
+	}
+	
+	/* The background economy adapter, or null to call the economy directly */
+	public QTEconomy getAsyncEconomy() {
+		return asyncEconomy;
+	}
+	
+	public QTDiscoveries getDiscoveries() {
+		return discoveries;
+	}
+	
+	public QTPermissions getQTPermissions() {
+		return permissions;
+	}
+	
+	public QTRegistry getRegistry() {
+		return registry;
+	}
+	
 	public FileConfiguration getLocations() {
 		if(locations == null) {
 			reloadLocations();
@@ -3220,6 +3883,11 @@ public class QuickTravel extends JavaPlugin implements Listener {
 		} catch (IOException ex) {
 			Logger.getLogger(JavaPlugin.class.getName()).log(Level.SEVERE, "Could not save config to " + locationsFile, ex);
 		}
+		if(reloader != null) {
+			reloader.markSaved();
+		}
+		registry.update();
+		zoneCheckAfter.clear();
 	}
 	
 	public boolean containsLetter(String s) {
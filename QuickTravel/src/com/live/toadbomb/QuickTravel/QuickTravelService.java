@@ -0,0 +1,19 @@
+package com.live.toadbomb.QuickTravel;
+
+import java.util.Set;
+
+/* Read-only access to QuickTravel's data for other plugins, registered with
+ * Bukkit's ServicesManager:
+ * 
+ *   RegisteredServiceProvider<QuickTravelService> rsp = getServer().getServicesManager().getRegistration(QuickTravelService.class);
+ *   QTSnapshot snapshot = rsp.getProvider().getSnapshot();
+ * 
+ * Snapshots are immutable and safe to use from any thread. Call getSnapshot()
+ * again to see later changes. */
+public interface QuickTravelService {
+	public QTSnapshot getSnapshot();
+	
+	/* Location keys of the QTs player has discovered, or null if they are
+	 * not online and have not been recently. Safe to call from any thread. */
+	public Set<String> getDiscovered(String player);
+}